@@ -0,0 +1,91 @@
+package gj.ea.art;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * What the JMH benchmarks share: the bundled tux.jpg, the default properties
+ * and genomes of random polygons drawn from a fixed seed.
+ *
+ * @author jaco
+ *
+ */
+public final class BenchmarkSupport {
+
+    public static final long SEED = 42;
+
+    public static final int VERTEX_COUNT = 5;
+
+    private static File tux;
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * The bundled tux.jpg, copied out of the class path once since the
+     * helpers load images from files.
+     */
+    public static synchronized String getTuxFileName() {
+        if (tux == null) {
+            try {
+                tux = File.createTempFile("tux", ".jpg");
+                tux.deleteOnExit();
+                InputStream in = ArtMain.class.getResourceAsStream("tux.jpg");
+                try {
+                    Files.copy(in, tux.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return tux.getPath();
+    }
+
+    /**
+     * The default ga.properties, with randomSeed set to SEED.
+     */
+    public static Properties getProperties() {
+        Properties properties = new Properties();
+        try {
+            InputStream in = ArtMain.class.getResourceAsStream("ga.properties");
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        properties.setProperty("randomSeed", String.valueOf(SEED));
+        return properties;
+    }
+
+    /**
+     * A genome of random polygons with VERTEX_COUNT vertices each on a width
+     * by height canvas, as { xs, ys, argb }.
+     */
+    public static int[][] randomGenome(int polygons, int width, int height) {
+        Random random = new Random(SEED);
+        int[] xs = new int[polygons * VERTEX_COUNT];
+        int[] ys = new int[polygons * VERTEX_COUNT];
+        int[] argb = new int[polygons];
+        for (int i = 0; i < polygons; i++) {
+            int x = random.nextInt(width + 1);
+            int y = random.nextInt(height + 1);
+            for (int j = i * VERTEX_COUNT; j < (i + 1) * VERTEX_COUNT; j++) {
+                xs[j] = Math.min(width, x + random.nextInt(width / 4 + 1));
+                ys[j] = Math.min(height, y + random.nextInt(height / 4 + 1));
+            }
+            argb[i] = random.nextInt();
+        }
+        return new int[][] { xs, ys, argb };
+    }
+
+}
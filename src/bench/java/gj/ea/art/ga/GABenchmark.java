@@ -0,0 +1,55 @@
+package gj.ea.art.ga;
+
+import gj.ea.art.BenchmarkSupport;
+import gj.ea.art.helpers.AlgorithmHelper;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Generations per second of each strategy evolving tux.jpg with the default
+ * properties. The population keeps evolving from one iteration to the next.
+ *
+ * @author jaco
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GABenchmark {
+
+    @Param({ "gj.ea.art.ga.GA", "gj.ea.art.ga.SteadyStateGA", "gj.ea.art.ga.HillClimber" })
+    private String algorithm;
+
+    private GA ga;
+
+    @Setup
+    public void setUp() {
+        Properties properties = BenchmarkSupport.getProperties();
+        properties.setProperty("algorithm", algorithm);
+        ga = (GA) AlgorithmHelper.createNew(BenchmarkSupport.getTuxFileName(), properties);
+        // Keeps it from checkpointing to 'eastate' in the working directory.
+        ga.setIsland();
+    }
+
+    @Benchmark
+    public void iterate() {
+        ga.iterate();
+    }
+
+}
@@ -0,0 +1,71 @@
+package gj.ea.art.ga;
+
+import gj.ea.art.BenchmarkSupport;
+import gj.ea.art.helpers.RandomHelper;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The genetic operators and the population sort, on a population of the
+ * default size evolving tux.jpg.
+ *
+ * @author jaco
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GASolutionBenchmark {
+
+    private GASolution[] population;
+
+    @Setup
+    public void setUp() {
+        Properties properties = BenchmarkSupport.getProperties();
+        RandomHelper.setParameters(properties);
+        population = new GASolution[Integer.parseInt(properties.getProperty("populationSize", "100"))];
+        for (int i = 0; i < population.length; i++) {
+            population[i] = new GASolution(BenchmarkSupport.getTuxFileName(), properties);
+            population[i].initialise();
+        }
+    }
+
+    /**
+     * Crossover and mutation.
+     */
+    @Benchmark
+    public GASolution breed() {
+        return population[0].breed(population[1]);
+    }
+
+    /**
+     * The single mutation of the steady-state strategies.
+     */
+    @Benchmark
+    public GASolution mutant() {
+        return population[0].mutant();
+    }
+
+    @Benchmark
+    public GASolution[] sort() {
+        GASolution[] solutions = population.clone();
+        GA.sort(solutions, true);
+        return solutions;
+    }
+
+}
@@ -0,0 +1,102 @@
+package gj.ea.art.helpers;
+
+import gj.ea.art.BenchmarkSupport;
+import gj.ea.art.helpers.RenderImageHelper.Renderer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scoring against tux.jpg: the metric kernel alone on a rendered image (in
+ * the int layout of the scanline rasteriser and the byte layout of Java2D),
+ * the original per-pixel getRGB() and Math.pow() loop it replaced, and a
+ * whole evaluation (render and score) through FitnessHelper.
+ *
+ * @author jaco
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FitnessBenchmark {
+
+    private static final int POLYGONS = 500;
+
+    @Param({ "EUCLIDEAN", "SQUARED", "ABSOLUTE" })
+    private FitnessMetric metric;
+
+    @Param({ "150", "300" })
+    private int size;
+
+    private SourceBuffer source;
+    private int[][] genome;
+    private int[] rendered;
+    private byte[] renderedBytes;
+    private BufferedImage sourceImage;
+    private BufferedImage renderedImage;
+
+    @Setup
+    public void setUp() {
+        ExecutorHelper.setParameters(BenchmarkSupport.getProperties());
+        source = PersistenceHelper.getSourceBuffer(BenchmarkSupport.getTuxFileName(), size);
+        genome = BenchmarkSupport.randomGenome(POLYGONS, source.getWidth(), source.getHeight());
+        rendered = ((DataBufferInt) RenderImageHelper.render(genome[0], genome[1], BenchmarkSupport.VERTEX_COUNT, genome[2], POLYGONS, 0, 0,
+                        source.getWidth(), source.getHeight(), Renderer.SCANLINE, 4).getRaster().getDataBuffer()).getData();
+        sourceImage = PersistenceHelper.getImage(BenchmarkSupport.getTuxFileName(), size);
+        renderedImage = RenderImageHelper.render(genome[0], genome[1], BenchmarkSupport.VERTEX_COUNT, genome[2], POLYGONS, 0, 0,
+                        source.getWidth(), source.getHeight(), Renderer.JAVA2D, 4);
+        renderedBytes = ((DataBufferByte) renderedImage.getRaster().getDataBuffer()).getData();
+    }
+
+    @Benchmark
+    public long score() {
+        return metric.error(source.getRGB(), 0, rendered, 0, rendered.length);
+    }
+
+    @Benchmark
+    public long scoreBytes() {
+        return metric.error(source.getRGB(), 0, renderedBytes, 0, source.getRGB().length);
+    }
+
+    /**
+     * The Euclidean loop the kernels replaced, whatever the metric parameter.
+     */
+    @Benchmark
+    public long scoreOriginal() {
+        long tmp = 0;
+        for (int y = 0; y < sourceImage.getHeight(); y++) {
+            for (int x = 0; x < sourceImage.getWidth(); x++) {
+                int e1 = sourceImage.getRGB(x, y), e2 = renderedImage.getRGB(x, y);
+                int e1b = e1 & 0xff, e2b = e2 & 0xff;
+                int e1g = (e1 >> 8) & 0xff, e2g = (e2 >> 8) & 0xff;
+                int e1r = (e1 >> 16) & 0xff, e2r = (e2 >> 16) & 0xff;
+                tmp = tmp + (long) Math.sqrt(Math.pow(e1b - e2b, 2) + Math.pow(e1g - e2g, 2) + Math.pow(e1r - e2r, 2));
+            }
+        }
+        return tmp;
+    }
+
+    @Benchmark
+    public long evaluate() {
+        return FitnessHelper.waitForFitness(FitnessHelper.submitEvaluationTask(source, genome[0], genome[1], BenchmarkSupport.VERTEX_COUNT,
+                        genome[2], Renderer.SCANLINE, 4, 32, metric, FitnessHelper.NO_CUTOFF, null)).getTotal();
+    }
+
+}
@@ -0,0 +1,57 @@
+package gj.ea.art.helpers;
+
+import gj.ea.art.BenchmarkSupport;
+import gj.ea.art.helpers.RenderImageHelper.Renderer;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rendering a whole solution, by polygon count, image size and renderer.
+ *
+ * @author jaco
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RenderBenchmark {
+
+    @Param({ "50", "200", "500" })
+    private int polygons;
+
+    @Param({ "150", "300" })
+    private int size;
+
+    @Param({ "SCANLINE", "JAVA2D" })
+    private Renderer renderer;
+
+    private int[][] genome;
+
+    @Setup
+    public void setUp() {
+        genome = BenchmarkSupport.randomGenome(polygons, size, size);
+    }
+
+    @Benchmark
+    public BufferedImage render() {
+        return RenderImageHelper.render(genome[0], genome[1], BenchmarkSupport.VERTEX_COUNT, genome[2], polygons, 0, 0, size, size,
+                        renderer, 4);
+    }
+
+}
@@ -1,6 +1,7 @@
 package gj.ea.art;
 
-import gj.ea.art.ga.GASolution;
+import gj.ea.art.helpers.AlgorithmHelper;
+import gj.ea.art.helpers.OutputHelper;
 import gj.ea.art.helpers.PersistenceHelper;
 
 import java.awt.BorderLayout;
@@ -8,21 +9,23 @@ import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Image;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.image.BufferedImage;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PrintWriter;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
 
-import javax.imageio.ImageIO;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
 
 import org.apache.log4j.Logger;
 
@@ -83,6 +86,21 @@ public class ArtMain extends JPanel {
         }
     }
 
+    /**
+     * What the display shows: the best solution and the progress string,
+     * handed over from the evolution thread together.
+     */
+    private static final class Progress {
+
+        private final ArtSolution best;
+        private final String text;
+
+        Progress(ArtSolution best, String text) {
+            this.best = best;
+            this.text = text;
+        }
+    }
+
     // ~
   
     private static final long serialVersionUID = 1L;
@@ -99,9 +117,14 @@ public class ArtMain extends JPanel {
     
     private volatile boolean quit;
 
+    // The latest progress, set by the evolution thread and shown on the EDT.
+    private final AtomicReference<Progress> progress = new AtomicReference<Progress>();
+    private ArtSolution shown; // the solution on display (EDT only).
+    private boolean rendering; // whether the next one is being rendered (EDT only).
+
     // Properties.
-    private String algorithm;
     private boolean saveImages;
+    private int displayFps;
     //private int imageSize;
     
     private EvolutionaryAlgorithm evolutionaryAlgorithm;
@@ -136,93 +159,118 @@ public class ArtMain extends JPanel {
         quit = false;
         
         
-        evolutionaryAlgorithm = initEvolutionaryAlgorithm(properties);
+        evolutionaryAlgorithm = AlgorithmHelper.loadOrCreate(sourceImageFileName, properties);
         
         drawPanel.init();
     }
 
     private void setParameters(Properties properties) {
-        algorithm = properties.getProperty("algorithm", "true");
         saveImages = Boolean.parseBoolean(properties.getProperty("saveImages", "true"));
         imageSize = Integer.parseInt(properties.getProperty("imageSize", "300"));
+        displayFps = Math.max(1, Integer.parseInt(properties.getProperty("displayFps", "25")));
+        OutputHelper.setParameters(properties);
     }
     
-    @SuppressWarnings("unchecked")
-    private EvolutionaryAlgorithm createNew(Properties properties) {
-        Class<EvolutionaryAlgorithm> clazz;
-        try {
-            clazz = (Class<EvolutionaryAlgorithm>) Class.forName(algorithm);
-            logger.debug("You selected the " + clazz.getCanonicalName() + " strategy.");
-            EvolutionaryAlgorithm ea = clazz.newInstance();
-            ea.initialise(sourceImageFileName, properties);
-            return ea;
-        } catch (ClassNotFoundException e) {
-            logger.error("I could not find the EA strategy (" + algorithm + " you wanted.)");
-            throw new RuntimeException(e);
-        } catch (InstantiationException e) {
-            logger.error("I could not instantiate the EA class (" + algorithm + ".)");
-            throw new RuntimeException(e);
-        } catch (IllegalAccessException e) {
-            logger.error("The EA class (" + algorithm + ") is badly defined and I got an IllegalAccessException.");
-            throw new RuntimeException(e);
-        }
-    }
-        
-    private EvolutionaryAlgorithm initEvolutionaryAlgorithm(Properties properties) {
-        if (new File("eastate").exists()) {
-            logger.debug("I found a 'eastate' file, attempting to load...");
-            EvolutionaryAlgorithm ea = PersistenceHelper.loadState("eastate");
-            logger.debug("The saved state utilised the " + ea.getClass().getCanonicalName() + " strategy.");
-            return ea;
-        } else {
-            logger.debug("I did not find any 'eastate' file, creating a new EA, based on defined properties.");
-            return createNew(properties);
-        }
-    }
-
-    public void go() throws FileNotFoundException {
+    /**
+     * Starts evolving on a thread of its own and refreshes the display
+     * displayFps times a second on the EDT, which shows whatever the latest
+     * best solution is by then. Evolution never waits for the display.
+     */
+    public void go() {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                evolve();
+            }
+        }, "evolution").start();
 
-        // Draws the source image on the left side for comparison.
-        drawPanel.getGraphics2D().drawImage(sourceImage, 0, 0, null);
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                // Draws the source image on the left side for comparison.
+                drawPanel.getGraphics2D().drawImage(sourceImage, 0, 0, null);
+                repaint();
+                new Timer(1000 / displayFps, new ActionListener() {
+                    @Override
+                    public void actionPerformed(ActionEvent e) {
+                        refresh();
+                    }
+                }).start();
+            }
+        });
+    }
 
+    /**
+     * The evolution loop. The PNG snapshots and the gachanges.csv lines are
+     * handed to OutputHelper, which writes them in the background.
+     */
+    private void evolve() {
         long bestOfTheBest = Long.MAX_VALUE;
+        String stopped = "Process stopped... (you can now close this window if you wish.)";
 
-        // To allow graphing, etc.
-        PrintWriter csv = new PrintWriter(new FileOutputStream(new File("gachanges.csv"), true));
-
-        while (!evolutionaryAlgorithm.stoppingConditionMet() && !quit) {
-            evolutionaryAlgorithm.iterate();
-            GASolution best = (GASolution) evolutionaryAlgorithm.getBestSolution();
-
-            logger.debug(evolutionaryAlgorithm.getProgressString());
-            statusBar.setText(evolutionaryAlgorithm.getProgressString());
-            if (best != null) {
-                drawPanel.getGraphics2D().drawImage(best.getScreenSolutionImage(), sourceImage.getWidth(), 0, null);
-                csv.append(evolutionaryAlgorithm.getGenerationCounter() + ", " + best.getFitness() + "\n");
-                csv.flush();
-
-                if (saveImages && best.getFitness() < bestOfTheBest) {
-                    bestOfTheBest = best.getFitness();
-                    try {
-                        ImageIO.write(best.getDiskSolutionImage(), "png", new File("ga_" + System.currentTimeMillis() + ".png"));
-                    } catch (Exception e) {
-                        logger.error("The ouput PNG could not be written!", e);
+        try {
+            while (!evolutionaryAlgorithm.stoppingConditionMet() && !quit) {
+                evolutionaryAlgorithm.iterate();
+                ArtSolution best = evolutionaryAlgorithm.getBestSolution();
+
+                logger.debug(evolutionaryAlgorithm.getProgressString());
+                progress.set(new Progress(best, evolutionaryAlgorithm.getProgressString()));
+                if (best != null) {
+                    // To allow graphing, etc.
+                    OutputHelper.appendLine("gachanges.csv", evolutionaryAlgorithm.getGenerationCounter() + ", " + best.getFitness());
+
+                    if (saveImages && best.getFitness() < bestOfTheBest) {
+                        bestOfTheBest = best.getFitness();
+                        OutputHelper.saveImageInBackground(best, "ga_" + System.currentTimeMillis() + ".png");
                     }
                 }
             }
+        } catch (RuntimeException e) {
+            logger.error("The evolution stopped unexpectedly.", e);
+            stopped = "Process stopped by an error, see the log... (you can now close this window if you wish.)";
+        }
+        OutputHelper.flush();
+        progress.set(new Progress(evolutionaryAlgorithm.getBestSolution(), stopped));
+    }
 
-            repaint();
+    /**
+     * Shows the latest progress (on the EDT). A new best solution is
+     * rendered in the background and drawn once done; if it has been
+     * overtaken by then, the next refresh picks up the newer one.
+     */
+    private void refresh() {
+        Progress latest = progress.get();
+        if (latest == null) {
+            return;
+        }
+        if (!latest.text.equals(statusBar.getText())) {
+            statusBar.setText(latest.text);
+        }
+        if (latest.best == null || latest.best == shown || rendering) {
+            return;
+        }
+        final ArtSolution best = latest.best;
+        rendering = true;
+        new SwingWorker<BufferedImage, Void>() {
+            @Override
+            protected BufferedImage doInBackground() {
+                return best.getScreenSolutionImage();
+            }
 
-           try {
-                Thread.sleep(1L); // Still looking for a better method than this...
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
+            @Override
+            protected void done() {
+                rendering = false;
+                shown = best;
+                try {
+                    drawPanel.getGraphics2D().drawImage(get(), sourceImage.getWidth(), 0, null);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                } catch (ExecutionException e) {
+                    logger.error("The best solution could not be rendered.", e);
+                }
+                repaint();
             }
-            
-        }
-        statusBar.setText("Process stopped... (you can now close this window if you wish.)");
-        csv.close();
-        repaint();
+        }.execute();
     }
 
     @Override
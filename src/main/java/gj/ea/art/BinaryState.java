@@ -0,0 +1,28 @@
+package gj.ea.art;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Implemented by algorithms that can save their state in the compact binary
+ * checkpoint format (see PersistenceHelper) instead of through Java
+ * serialisation. Each algorithm versions its own part of the format.
+ * 
+ * @author jaco
+ *
+ */
+public interface BinaryState {
+
+    /**
+     * Writes the complete state.
+     */
+    public void writeState(DataOutput out) throws IOException;
+
+    /**
+     * Restores the state written by writeState() into a newly created (not
+     * initialised) instance.
+     */
+    public void readState(DataInput in) throws IOException;
+
+}
@@ -1,13 +1,11 @@
 package gj.ea.art;
 
-import gj.ea.art.ga.GA;
 import gj.ea.art.ga.GASolution;
 import gj.ea.art.ga.JsonHelper;
+import gj.ea.art.helpers.PersistenceHelper;
 
-import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 
 /**
  * Created by IntelliJ IDEA.
@@ -29,10 +27,19 @@ public class DumpMain {
         String inFilename = args[0];
         String outFilename = args[1];
 
-        ObjectInputStream in = new ObjectInputStream(new FileInputStream(inFilename));
-        GA ga = (GA)in.readObject();
+        // Only reads the state: a serialised one is not converted.
+        EvolutionaryAlgorithm ea = PersistenceHelper.loadState(inFilename, false);
+        if (ea == null) {
+            System.out.println("Could not load " + inFilename + ".");
+            System.exit(1);
+        }
 
-        GASolution solution = (GASolution)ga.getBestSolution();
+        ArtSolution best = ea.getBestSolution();
+        if (!(best instanceof GASolution)) {
+            System.out.println("Cannot dump the solutions of " + ea.getClass().getName() + ".");
+            System.exit(1);
+        }
+        GASolution solution = (GASolution) best;
         System.out.println("Dumping solution to " + outFilename + "...");
         FileWriter w = new FileWriter(outFilename);
         w.write(JsonHelper.toJson(solution));
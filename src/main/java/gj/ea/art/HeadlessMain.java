@@ -0,0 +1,149 @@
+package gj.ea.art;
+
+import gj.ea.art.helpers.AlgorithmHelper;
+import gj.ea.art.helpers.FitnessCacheHelper;
+import gj.ea.art.helpers.MetricsHelper;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs the evolutionary algorithm without any user interface, for batch runs
+ * on machines without a display. The run stops once the algorithm's own
+ * stopping condition is met or once any of the configured budgets (number of
+ * generations, wall-clock seconds or target fitness) is exhausted.
+ *
+ * @author jaco
+ *
+ */
+public class HeadlessMain {
+
+    private static final Logger logger = Logger.getLogger(HeadlessMain.class);
+
+    private EvolutionaryAlgorithm evolutionaryAlgorithm;
+
+    // Properties.
+    private long maxGenerations; // 0 means no limit.
+    private long maxSeconds; // 0 means no limit.
+    private long targetFitness; // -1 means no target.
+    private int progressInterval; // log every so many generations.
+
+    public HeadlessMain(String sourceImageFileName, Properties properties) {
+        setParameters(properties);
+        evolutionaryAlgorithm = AlgorithmHelper.loadOrCreate(sourceImageFileName, properties);
+    }
+
+    private void setParameters(Properties properties) {
+        maxGenerations = Long.parseLong(properties.getProperty("maxGenerations", "0"));
+        maxSeconds = Long.parseLong(properties.getProperty("maxSeconds", "0"));
+        targetFitness = Long.parseLong(properties.getProperty("targetFitness", "-1"));
+        progressInterval = Math.max(1, Integer.parseInt(properties.getProperty("progressInterval", "100")));
+    }
+
+    private boolean budgetExhausted(long generations, long start) {
+        if (maxGenerations > 0 && generations >= maxGenerations) {
+            logger.info("Stopping: reached the generation budget of " + maxGenerations + ".");
+            return true;
+        }
+        if (maxSeconds > 0 && System.currentTimeMillis() - start >= maxSeconds * 1000L) {
+            logger.info("Stopping: reached the time budget of " + maxSeconds + "sec.");
+            return true;
+        }
+        if (targetFitness >= 0) {
+            ArtSolution best = evolutionaryAlgorithm.getBestSolution();
+            if (best != null && best.getFitness() <= targetFitness) {
+                logger.info("Stopping: reached the target fitness of " + targetFitness + ".");
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The evolution loop. Nothing but the algorithm itself runs per
+     * generation; progress is only logged every progressInterval generations.
+     * Generations are counted by the algorithm, as one iteration may run
+     * several (see IslandGA).
+     */
+    public void go() {
+        long start = System.currentTimeMillis();
+        int first = evolutionaryAlgorithm.getGenerationCounter();
+        long generations = 0;
+        long logged = 0;
+
+        while (!evolutionaryAlgorithm.stoppingConditionMet() && !budgetExhausted(generations, start)) {
+            evolutionaryAlgorithm.iterate();
+            generations = evolutionaryAlgorithm.getGenerationCounter() - first;
+            if (generations - logged >= progressInterval) {
+                logger.info(evolutionaryAlgorithm.getProgressString());
+                logged = generations;
+            }
+        }
+
+        double seconds = (System.currentTimeMillis() - start) / 1000.0;
+        logger.info(evolutionaryAlgorithm.getProgressString());
+        logger.info("Ran " + generations + " generations in " + Math.round(seconds * 10) / 10.0 + "sec (" +
+                Math.round(generations / Math.max(seconds, 0.001) * 10) / 10.0 + " generations/sec).");
+        logger.info("Fitness cache: " + FitnessCacheHelper.getHits() + " hits, " + FitnessCacheHelper.getMisses() + " misses.");
+        logger.info(MetricsHelper.getSummary());
+    }
+
+    private static void usage() {
+        System.out.println("Evolving art application (headless).");
+        System.out.println("\nUsage: ./headless.sh <image to evolve> [<file.properties>] [<key>=<value> ...]");
+        System.out.println("\nProperties override ga.properties, in the order given. Useful budget properties are" +
+                "\nmaxGenerations, maxSeconds and targetFitness (all unlimited by default).");
+    }
+
+    /**
+     * Reads the bundled ga.properties and applies the command line overrides:
+     * either a properties file or key=value pairs.
+     *
+     * @param args
+     * @return
+     * @throws IOException
+     */
+    static Properties loadProperties(String[] args) throws IOException {
+        Properties properties = new Properties();
+        InputStream inputStreamForProperties = ArtMain.class.getResourceAsStream("ga.properties");
+        properties.load(inputStreamForProperties);
+        inputStreamForProperties.close();
+
+        for (int i = 1; i < args.length; i++) {
+            int split = args[i].indexOf('=');
+            if (split > 0) {
+                properties.setProperty(args[i].substring(0, split).trim(), args[i].substring(split + 1).trim());
+            } else {
+                InputStream in = new FileInputStream(args[i]);
+                try {
+                    properties.load(in);
+                } finally {
+                    in.close();
+                }
+            }
+        }
+        return properties;
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        if (args.length == 0 || args[0].equals("-h")) {
+            usage();
+            return;
+        }
+
+        try {
+            HeadlessMain headlessMain = new HeadlessMain(args[0], loadProperties(args));
+            headlessMain.go();
+        } catch (IOException e) {
+            logger.error("Ok, bad news. The algorithm cannot start", e);
+        }
+        System.exit(0);
+    }
+
+}
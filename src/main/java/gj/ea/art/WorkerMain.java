@@ -0,0 +1,38 @@
+package gj.ea.art;
+
+import gj.ea.art.helpers.ExecutorHelper;
+import gj.ea.art.helpers.RemoteFitnessHelper;
+
+import java.util.Properties;
+
+/**
+ * Runs this process as an evaluation worker for a coordinator elsewhere (see
+ * RemoteFitnessHelper): it renders and scores the genomes it is sent and
+ * returns their tile errors.
+ * 
+ * @author jaco
+ *
+ */
+public class WorkerMain {
+
+    private static void usage() {
+        System.out.println("Evolving art application (evaluation worker).");
+        System.out.println("\nUsage: ./worker.sh <port> [<threads>]");
+        System.out.println("\nStart the evolution with workers=<host>:<port>,... to use the workers.");
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0 || args[0].equals("-h")) {
+            usage();
+            return;
+        }
+        System.setProperty("java.awt.headless", "true");
+        Properties properties = new Properties();
+        if (args.length > 1) {
+            properties.setProperty("threadCount", args[1]);
+        }
+        ExecutorHelper.setParameters(properties);
+        RemoteFitnessHelper.serve(Integer.parseInt(args[0]));
+    }
+
+}
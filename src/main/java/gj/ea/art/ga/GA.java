@@ -1,22 +1,46 @@
 package gj.ea.art.ga;
 
 import gj.ea.art.ArtSolution;
+import gj.ea.art.BinaryState;
 import gj.ea.art.EvolutionaryAlgorithm;
+import gj.ea.art.helpers.AlgorithmHelper;
+import gj.ea.art.helpers.FitnessHelper;
+import gj.ea.art.helpers.MetricsHelper;
+import gj.ea.art.helpers.MetricsHelper.Phase;
 import gj.ea.art.helpers.PersistenceHelper;
+import gj.ea.art.helpers.RandomHelper;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
-public class GA implements EvolutionaryAlgorithm, Serializable {
+public class GA implements EvolutionaryAlgorithm, BinaryState, Serializable, Cloneable {
 
     private static final long serialVersionUID = 1L;
 
+    // Version of the binary state written by writeState().
+    private static final int STATE_VERSION = 1;
+
     //private static final Logger logger = Logger.getLogger(GA.class);
     
     // Parameters as passed in via properties
-    private int populationSize;
+    int populationSize;
+    private int[] pyramidFactors; // scale-down factors of the fitness pyramid, coarsest first
+    private double pyramidTolerance; // how much worse than the worst parent an estimate may be
+    private boolean fitnessCutoff; // stop scoring offspring once they are worse than the worst parent
+    private int pipelineDepth; // generations of offspring that may be evaluating at once
 
     // GA values
     private GASolution[] population;
@@ -25,7 +49,88 @@ public class GA implements EvolutionaryAlgorithm, Serializable {
     private long previousFitness; // previous iteration's fitness.
     private int lastImprovement; // the number of generations ago that a fitness was witness.
     private String feedback; // a feedback string.
+    private long rejectedEarly; // the number of offspring rejected by the fitness pyramid.
+    private transient boolean island; // part of an IslandGA, which does the checkpointing.
+
+    // Reused from generation to generation, so that a generation allocates
+    // next to nothing: the work arrays, and culled offspring to breed into.
+    private transient GASolution[] offspring;
+    private transient int[] parents;
+    private transient int[] mates;
+    private transient long[] fitnesses; // of the population, while selecting the survivors
+    private transient int[] ranks; // of the population, to break ties
+    private transient BlockingQueue<GASolution> evaluated;
+    private transient Deque<GASolution> spares;
+    private transient int inFlight; // offspring submitted but not yet selected
     
+    /**
+     * States saved before the fitness pyramid or pipelining was added run
+     * without them.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (pyramidFactors == null) {
+            pyramidFactors = new int[0];
+        }
+        if (pipelineDepth < 1) {
+            pipelineDepth = 1;
+        }
+    }
+
+    /**
+     * The binary state: the source image and properties, which all solutions
+     * share, once; the GA's counters; then the genes of each solution.
+     */
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        out.writeInt(STATE_VERSION);
+        out.writeUTF(population[0].getSourceImageFileName());
+        Properties properties = population[0].getProperties();
+        Set<String> names = new TreeSet<String>(properties.stringPropertyNames()); // sorted, so equal states write equal bytes
+        out.writeInt(names.size());
+        for (String name : names) {
+            out.writeUTF(name);
+            out.writeUTF(properties.getProperty(name));
+        }
+        out.writeLong(timeSpent);
+        out.writeInt(generationCounter);
+        out.writeLong(previousFitness);
+        out.writeInt(lastImprovement);
+        out.writeUTF(feedback);
+        out.writeLong(rejectedEarly);
+        out.writeInt(population.length);
+        for (GASolution solution : population) {
+            solution.writeGenes(out);
+        }
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        int version = in.readInt();
+        if (version != STATE_VERSION) {
+            throw new IOException("Unsupported GA state version " + version + ".");
+        }
+        String sourceImageFile = in.readUTF();
+        Properties properties = new Properties();
+        for (int i = in.readInt(); i > 0; i--) {
+            properties.setProperty(in.readUTF(), in.readUTF());
+        }
+        setParameters(properties);
+        timeSpent = in.readLong();
+        generationCounter = in.readInt();
+        previousFitness = in.readLong();
+        lastImprovement = in.readInt();
+        feedback = in.readUTF();
+        rejectedEarly = in.readLong();
+        population = new GASolution[in.readInt()];
+        GASolution first = new GASolution(sourceImageFile, properties);
+        for (int i = 0; i < population.length; i++) {
+            // The solutions share the source image.
+            population[i] = i == 0 ? first : first.newSibling();
+            population[i].readGenes(in);
+        }
+    }
+
     @Override
     public void initialise(String sourceImageFile, Properties properties) {
         setParameters(properties);
@@ -58,8 +163,196 @@ public class GA implements EvolutionaryAlgorithm, Serializable {
         });
     }
 
-    private void setParameters(Properties properties) {
+    void setParameters(Properties properties) {
         populationSize = Integer.parseInt(properties.getProperty("populationSize", "100"));
+        
+        String factors = properties.getProperty("pyramidFactors", "").trim();
+        pyramidFactors = new int[0];
+        if (factors.length() > 0) {
+            String[] values = factors.split(",");
+            pyramidFactors = new int[values.length];
+            for (int i = 0; i < values.length; i++) {
+                pyramidFactors[i] = Integer.parseInt(values[i].trim());
+            }
+        }
+        pyramidTolerance = Double.parseDouble(properties.getProperty("pyramidTolerance", "0.01"));
+        fitnessCutoff = Boolean.parseBoolean(properties.getProperty("fitnessCutoff", "true"));
+        pipelineDepth = Math.max(1, Integer.parseInt(properties.getProperty("pipelineDepth", "1")));
+    }
+
+    /**
+     * With a fitness pyramid, estimates the fitness of the offspring on the
+     * downsampled source, level by level, and drops those that are estimated
+     * to be worse than the worst parent (give or take the tolerance): they
+     * would not survive the generation anyway. The parents' estimates are
+     * only calculated once. The remaining offspring are moved to the front
+     * of the arrays and their number is returned; the others are kept as
+     * spares.
+     */
+    private int rejectEarly(GASolution[] offspring, int[] parents, int[] mates) {
+        int count = offspring.length;
+        for (int factor : pyramidFactors) {
+            for (GASolution solution : population) {
+                solution.submitCoarseFitness(factor);
+            }
+            for (int i = 0; i < count; i++) {
+                offspring[i].submitCoarseFitness(factor);
+            }
+            long cut = 0;
+            for (GASolution solution : population) {
+                cut = Math.max(cut, solution.getCoarseFitness(factor));
+            }
+            cut = cut + (long) (cut * pyramidTolerance);
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                if (offspring[i].getCoarseFitness(factor) <= cut) {
+                    offspring[kept] = offspring[i];
+                    parents[kept] = parents[i];
+                    mates[kept] = mates[i];
+                    kept++;
+                } else {
+                    recycle(offspring[i]);
+                }
+            }
+            rejectedEarly += count - kept;
+            count = kept;
+        }
+        return count;
+    }
+
+    /**
+     * The number of offspring bred per generation: one per solution.
+     */
+    int getOffspringCount() {
+        return population.length;
+    }
+
+    /**
+     * Breeds offspring i, recording both its parents: solution i mates with
+     * a random other solution, preferably a fitter one.
+     */
+    GASolution breed(GASolution[] population, int i, int[] parents, int[] mates) {
+        // Elegant way to ensure that mate != i (this avoids the nasty while-loop).
+        parents[i] = i;
+        mates[i] = (i + (int) (RandomHelper.nextDouble() * RandomHelper.nextDouble() * population.length)) % population.length;
+        return population[i].breed(population[mates[i]], spare());
+    }
+
+    /**
+     * Puts an evaluated offspring in the place of the worst solution, unless
+     * the offspring is worse than that itself. While selecting, the
+     * population is a max-heap (see heapify()), so that costs O(log N).
+     * Equal fitness is decided by rank (offspring before the population,
+     * each in order), which gives the survivors of a stable sort of the
+     * offspring followed by the population whatever order the offspring
+     * finish in.
+     */
+    private void select(GASolution solution) {
+        long fitness = solution.getFitness();
+        int rank = solution.rank;
+        if (fitness > fitnesses[0] || (fitness == fitnesses[0] && rank > ranks[0])) {
+            recycle(solution);
+            return;
+        }
+        recycle(population[0]);
+        siftDown(0, population.length, solution, fitness, rank);
+    }
+
+    /**
+     * Turns the sorted population into a max-heap on (fitness, rank), the
+     * worst solution on top, by reversing it.
+     */
+    private void heapify(int count) {
+        int last = population.length - 1;
+        for (int i = 0; i < population.length / 2; i++) {
+            GASolution tmp = population[i];
+            population[i] = population[last - i];
+            population[last - i] = tmp;
+        }
+        for (int i = 0; i < population.length; i++) {
+            fitnesses[i] = population[i].getFitness();
+            ranks[i] = count + last - i;
+        }
+    }
+
+    /**
+     * Sorts the heap back into a population ordered best first (heapsort),
+     * as breeding and the rest of the GA expect.
+     */
+    private void sort() {
+        for (int end = population.length - 1; end > 0; end--) {
+            GASolution solution = population[end];
+            long fitness = fitnesses[end];
+            int rank = ranks[end];
+            population[end] = population[0];
+            fitnesses[end] = fitnesses[0];
+            ranks[end] = ranks[0];
+            siftDown(0, end, solution, fitness, rank);
+        }
+    }
+
+    /**
+     * Places the solution at i of the heap of the given size, moving the
+     * worse of i's children up as long as they are worse than the solution.
+     */
+    private void siftDown(int i, int size, GASolution solution, long fitness, int rank) {
+        for (int child = 2 * i + 1; child < size; child = 2 * i + 1) {
+            if (child + 1 < size && (fitnesses[child + 1] > fitnesses[child]
+                            || (fitnesses[child + 1] == fitnesses[child] && ranks[child + 1] > ranks[child]))) {
+                child++;
+            }
+            if (fitnesses[child] < fitness || (fitnesses[child] == fitness && ranks[child] < rank)) {
+                break;
+            }
+            population[i] = population[child];
+            fitnesses[i] = fitnesses[child];
+            ranks[i] = ranks[child];
+            i = child;
+        }
+        population[i] = solution;
+        fitnesses[i] = fitness;
+        ranks[i] = rank;
+    }
+
+    /**
+     * The selection of iterate() on its own: the offspring, ranked in the
+     * order given, compete with the population (sorted, best first) and are
+     * taken in the order they finished. The population array ends up
+     * holding the survivors, best first.
+     */
+    void selectSurvivors(GASolution[] population, GASolution[] offspring, List<GASolution> finished) {
+        this.population = population;
+        fitnesses = new long[population.length];
+        ranks = new int[population.length];
+        spares = new ArrayDeque<GASolution>();
+        for (int i = 0; i < offspring.length; i++) {
+            offspring[i].rank = i;
+        }
+        heapify(offspring.length);
+        for (GASolution solution : finished) {
+            select(solution);
+        }
+        sort();
+    }
+
+    /**
+     * A culled offspring to breed the next one into, or null if there is
+     * none.
+     */
+    GASolution spare() {
+        return spares == null ? null : spares.poll();
+    }
+
+    /**
+     * Keeps a culled offspring as a spare. Only offspring that never joined
+     * the population qualify: a former member may still be held by a
+     * checkpoint, another island or the display.
+     */
+    private void recycle(GASolution solution) {
+        if (solution.newborn) {
+            solution.recycle();
+            spares.push(solution);
+        }
     }
 
     @Override
@@ -72,41 +365,129 @@ public class GA implements EvolutionaryAlgorithm, Serializable {
         
         // Start the stop-watch.
         long stopWatch = System.currentTimeMillis();
+        long start = System.nanoTime();
         
-        // Temporary array to keep both the offspring and the parents.
-        GASolution[] nextPopulation = new GASolution[populationSize * 2];
-        for (int i = 0; i < population.length; i++) {
-            // Elegant way to ensure that mate != i (this avoids the nasty while-loop).
-            int mate = (i + (int) (Math.random() * Math.random() * population.length)) % population.length;
-            nextPopulation[i] = population[i].mate(population[mate]);
+        // Breed the offspring, remembering both parents of each.
+        if (offspring == null || offspring.length != getOffspringCount() || fitnesses.length != population.length) {
+            offspring = new GASolution[getOffspringCount()];
+            parents = new int[offspring.length];
+            mates = new int[offspring.length];
+            fitnesses = new long[population.length];
+            ranks = new int[population.length];
+            evaluated = new ArrayBlockingQueue<GASolution>(offspring.length * pipelineDepth);
+            spares = new ArrayDeque<GASolution>();
+            inFlight = 0;
+        }
+        for (int i = 0; i < offspring.length; i++) {
+            offspring[i] = breed(population, i, parents, mates);
+        }
+        long phase = MetricsHelper.record(Phase.BREED, start);
+        int count = rejectEarly(offspring, parents, mates);
+        
+        // Evaluate the remaining offspring and wait for them, in whatever order they finish.
+        // An offspring worse than the worst parent cannot survive, so its evaluation may stop there.
+        long cutoff = fitnessCutoff ? population[population.length - 1].getFitness() : FitnessHelper.NO_CUTOFF;
+        for (int i = 0; i < count; i++) {
+            offspring[i].rank = i;
+            offspring[i].evaluate(population[parents[i]], population[mates[i]], evaluated, cutoff);
         }
         
-        // Copy parents to new generation and copy the best individuals (i.e. children/parents compete).
-        System.arraycopy(population, 0, nextPopulation, population.length, population.length);
-        sort(nextPopulation, true);
-        System.arraycopy(nextPopulation, 0, population, 0, population.length);
+        inFlight += count;
+        
+        // Children and parents compete: each offspring takes its place among the population as soon as
+        // its fitness is known, pushing out the worst. The culled offspring are kept as spares.
+        // Pipelined, the stragglers of the last pipelineDepth - 1 generations are left to finish
+        // while the next generation is bred from the survivors so far.
+        heapify(count);
+        try {
+            while (inFlight > (pipelineDepth - 1) * offspring.length) {
+                select(evaluated.take());
+                inFlight--;
+            }
+            for (GASolution solution = evaluated.poll(); solution != null; solution = evaluated.poll()) {
+                select(solution);
+                inFlight--;
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        phase = MetricsHelper.record(Phase.EVALUATE, phase);
+        sort();
+        
+        // The survivors are newborn no more.
+        for (int i = 0; i < population.length; i++) {
+            population[i].newborn = false;
+        }
+        Arrays.fill(offspring, null);
+        MetricsHelper.record(Phase.SORT, phase);
 
         long delta = 0;
         if (population[0].getFitness() < previousFitness || previousFitness == -1) {
             delta = previousFitness - population[0].getFitness();
             previousFitness = population[0].getFitness();
             lastImprovement = 0;
-            PersistenceHelper.saveState(this, "eastate");
+            if (!island) {
+                PersistenceHelper.saveStateInBackground(snapshot(), AlgorithmHelper.STATE_FILE);
+            }
         }
         
         // Update GA variables.
         lastImprovement++;
         generationCounter++;
         timeSpent = timeSpent + (System.currentTimeMillis() - stopWatch);
+        MetricsHelper.record(Phase.GENERATION, start);
+        MetricsHelper.generation(delta > 0);
         
         // Construct the feedback String.
         feedback = "Generation: " + generationCounter + 
             " Last change: " + lastImprovement + 
             " Best: " + population[0].getFitness() + 
             " Time: " + Math.round((timeSpent / 1000.0) * 10) / 10.0 + "sec" + 
+            (pyramidFactors.length > 0 ? " Rejected early: " + rejectedEarly : "") +
             (delta > 0 ? " (improvement: " + delta +")" : "");
     }
 
+    /**
+     * A copy to checkpoint while evolution carries on. Only the population
+     * array needs copying: solutions do not change once created.
+     */
+    GA snapshot() {
+        try {
+            GA copy = (GA) clone();
+            copy.population = population.clone();
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Makes this GA an island of an IslandGA: it no longer checkpoints itself.
+     */
+    void setIsland() {
+        island = true;
+    }
+
+    /**
+     * The best count solutions, to migrate to another island.
+     */
+    GASolution[] getMigrants(int count) {
+        return Arrays.copyOf(population, Math.min(count, population.length));
+    }
+
+    /**
+     * Replaces the worst solutions with the migrants, unless already present.
+     */
+    void immigrate(GASolution[] migrants) {
+        int worst = population.length - 1;
+        for (GASolution migrant : migrants) {
+            if (worst >= 0 && !Arrays.asList(population).contains(migrant)) {
+                population[worst--] = migrant;
+            }
+        }
+        sort(population, true);
+    }
+
     @Override
     public boolean stoppingConditionMet() {
         return false;
@@ -1,19 +1,35 @@
 package gj.ea.art.ga;
 
 import gj.ea.art.ArtSolution;
+import gj.ea.art.helpers.FitnessCacheHelper;
 import gj.ea.art.helpers.FitnessHelper;
+import gj.ea.art.helpers.FitnessListener;
+import gj.ea.art.helpers.FitnessMetric;
 import gj.ea.art.helpers.PersistenceHelper;
+import gj.ea.art.helpers.PolygonRasterizer;
+import gj.ea.art.helpers.RandomHelper;
+import gj.ea.art.helpers.RemoteFitnessHelper;
 import gj.ea.art.helpers.RenderImageHelper;
+import gj.ea.art.helpers.RenderImageHelper.Renderer;
+import gj.ea.art.helpers.SourceBuffer;
+import gj.ea.art.helpers.TileFitness;
 
 import java.awt.Color;
-import java.awt.Point;
 import java.awt.Polygon;
 import java.awt.image.BufferedImage;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
+import java.util.function.Function;
 
 
 /**
@@ -28,29 +44,107 @@ public class GASolution implements ArtSolution, Serializable {
 
     // Parameters as passed in via constructor.
     int polygonCount;
-    private int polyVertexCount;
+    int polyVertexCount;
     private int initialPolyVariance;
 
     private double mutateModifyChance;
     private double mutateDormantChance;
     private double mutateRearrengeChance;
 
+    private FitnessMetric fitnessMetric;
+    private Renderer renderer;
+    private int antialiasSamples;
+
+    private boolean incrementalEvaluation;
+    private int fitnessTileSize;
+    private double incrementalThreshold;
+
     // Housekeeping.
     private String sourceImageFileName;
-    private transient BufferedImage sourceImage; // what we want
+    private transient SourceBuffer sourceBuffer; // what we want, shared by all solutions evolving the same image
     private int imageSize;
     private Properties properties;
 
-    // Solution-specific values (including "genes")
-    Polygon[] polys;
-    Color[] cols;
-
-    private transient Future<BufferedImage> target; // current result
-    private transient Future<Long> fitness; // fitness (target against
+    // Solution-specific values (including "genes"). The genome is packed:
+    // polygon i owns the vertices xs/ys[i * polyVertexCount ...] and the
+    // colour argb[i] (non-premultiplied ARGB).
+    int[] xs;
+    int[] ys;
+    int[] argb;
+
+    private transient Future<BufferedImage> target; // rendered image, only when asked for
+    private transient Future<TileFitness> fitness; // fitness (target against source), per tile
+    private transient ConcurrentMap<Integer, Future<TileFitness>> coarseFitness; // estimates, by pyramid factor
+    private transient String settings; // what besides the genes determines the fitness, for the cache key
+    private transient boolean[] dirty; // tiles to re-score, kept for the next incremental evaluation
+    private transient boolean[] candidateDirty; // scratch space to compare the parents in
+    transient boolean newborn; // bred but not yet admitted to a population, so it may be recycled
+    transient int rank; // place among the offspring of its generation, to break ties in selection
     
+    /**
+     * The parameters are re-read from the saved properties, which picks up
+     * parameters added since the state was saved. States saved before the
+     * genome was packed (with Polygon[] polys and Color[] cols) are converted.
+     */
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
-        in.defaultReadObject();
-        sourceImage = PersistenceHelper.getImage(sourceImageFileName, imageSize);
+        ObjectInputStream.GetField fields = in.readFields();
+        sourceImageFileName = (String) fields.get("sourceImageFileName", null);
+        properties = (Properties) fields.get("properties", null);
+        setParameters(properties);
+        xs = (int[]) fields.get("xs", null);
+        ys = (int[]) fields.get("ys", null);
+        argb = (int[]) fields.get("argb", null);
+        if (xs == null) {
+            unpackLegacyGenes((Polygon[]) fields.get("polys", null), (Color[]) fields.get("cols", null));
+        }
+        sourceBuffer = PersistenceHelper.getSourceBuffer(sourceImageFileName, imageSize);
+    }
+
+    private void unpackLegacyGenes(Polygon[] polys, Color[] cols) {
+        polygonCount = polys.length;
+        polyVertexCount = polys.length == 0 ? polyVertexCount : polys[0].npoints;
+        xs = new int[polygonCount * polyVertexCount];
+        ys = new int[polygonCount * polyVertexCount];
+        argb = new int[polygonCount];
+        for (int i = 0; i < polygonCount; i++) {
+            System.arraycopy(polys[i].xpoints, 0, xs, i * polyVertexCount, polyVertexCount);
+            System.arraycopy(polys[i].ypoints, 0, ys, i * polyVertexCount, polyVertexCount);
+            argb[i] = cols[i].getRGB();
+        }
+    }
+
+    /**
+     * Writes the genome: the polygon and vertex counts followed by the packed
+     * genes.
+     */
+    void writeGenes(DataOutput out) throws IOException {
+        out.writeInt(polygonCount);
+        out.writeInt(polyVertexCount);
+        writeInts(out, xs);
+        writeInts(out, ys);
+        writeInts(out, argb);
+    }
+
+    void readGenes(DataInput in) throws IOException {
+        polygonCount = in.readInt();
+        polyVertexCount = in.readInt();
+        xs = readInts(in, polygonCount * polyVertexCount);
+        ys = readInts(in, polygonCount * polyVertexCount);
+        argb = readInts(in, polygonCount);
+    }
+
+    private static void writeInts(DataOutput out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static int[] readInts(DataInput in, int count) throws IOException {
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
     }
 
     public GASolution(String sourceImageFileName, Properties properties) {
@@ -59,17 +153,37 @@ public class GASolution implements ArtSolution, Serializable {
 
         setParameters(properties);
         
-        sourceImage = PersistenceHelper.getImage(sourceImageFileName, imageSize);
+        sourceBuffer = PersistenceHelper.getSourceBuffer(sourceImageFileName, imageSize);
     }
     
     public GASolution(String sourceImageFileName, BufferedImage sourceImage, Properties properties) {
+        this(sourceImageFileName, new SourceBuffer(sourceImage), properties);
+    }
+
+    private GASolution(String sourceImageFileName, SourceBuffer sourceBuffer, Properties properties) {
         this.sourceImageFileName = sourceImageFileName;
-        this.sourceImage = sourceImage;
+        this.sourceBuffer = sourceBuffer;
         this.properties = properties;
         
         setParameters(properties);
     }
 
+    /**
+     * A solution without genes that shares this one's source image and
+     * parameters.
+     */
+    GASolution newSibling() {
+        return new GASolution(sourceImageFileName, sourceBuffer, properties);
+    }
+
+    String getSourceImageFileName() {
+        return sourceImageFileName;
+    }
+
+    Properties getProperties() {
+        return properties;
+    }
+
     private void setParameters(Properties properties) {
         imageSize = Integer.parseInt(properties.getProperty("imageSize", "300"));
         
@@ -80,28 +194,41 @@ public class GASolution implements ArtSolution, Serializable {
         mutateModifyChance = Double.parseDouble(properties.getProperty("mutateModifyChance", "0.01"));
         mutateDormantChance = Double.parseDouble(properties.getProperty("mutateDormantChance", "0.005"));
         mutateRearrengeChance = Double.parseDouble(properties.getProperty("mutateRearrengeChance", "0.008"));
-    }
 
-    private Polygon getRandomPoly() {
-        Polygon polygon = new Polygon();
-        int width = sourceImage.getWidth();
-        int height = sourceImage.getHeight();
+        fitnessMetric = FitnessMetric.valueOf(properties.getProperty("fitnessMetric", "euclidean").toUpperCase());
+        renderer = Renderer.valueOf(properties.getProperty("renderer", "scanline").toUpperCase());
+        antialiasSamples = Integer.parseInt(properties.getProperty("antialiasSamples", "4"));
+        PolygonRasterizer.checkSamples(antialiasSamples);
+
+        incrementalEvaluation = Boolean.parseBoolean(properties.getProperty("incrementalEvaluation", "true"));
+        fitnessTileSize = Integer.parseInt(properties.getProperty("fitnessTileSize", "32"));
+        incrementalThreshold = Double.parseDouble(properties.getProperty("incrementalThreshold", "0.5"));
 
-        Point p = new Point((int) (Math.random() * (width - initialPolyVariance)), (int) (Math.random() * (height - initialPolyVariance)));
-        for (int i = 0; i < polyVertexCount; i++) {
-            int dx = (int) (Math.random() * initialPolyVariance);
-            int dy = (int) (Math.random() * initialPolyVariance);
-            polygon.addPoint((int) p.getX() + dx, (int) p.getY() + dy);
+        settings = null;
+    }
+
+    /**
+     * Places polygon i at a random point, with its vertices spread by at most
+     * initialPolyVariance.
+     */
+    private void setRandomPoly(int i) {
+        int width = sourceBuffer.getWidth();
+        int height = sourceBuffer.getHeight();
+
+        int x = (int) (RandomHelper.nextDouble() * (width - initialPolyVariance));
+        int y = (int) (RandomHelper.nextDouble() * (height - initialPolyVariance));
+        for (int j = i * polyVertexCount; j < (i + 1) * polyVertexCount; j++) {
+            xs[j] = x + (int) (RandomHelper.nextDouble() * initialPolyVariance);
+            ys[j] = y + (int) (RandomHelper.nextDouble() * initialPolyVariance);
         }
-        return polygon;
     }
 
-    private Color getRandomColor(float alpha) {
-        return new Color((float) Math.random(), (float) Math.random(), (float) Math.random(), alpha);
+    private static int randomChannel() {
+        return (int) (RandomHelper.nextDouble() * 255 + 0.5);
     }
 
-    private Color getRandomColor() {
-        return getRandomColor((float) Math.random());
+    private static int getRandomColor() {
+        return (randomChannel() << 24) | (randomChannel() << 16) | (randomChannel() << 8) | randomChannel();
     }
 
     /**
@@ -109,43 +236,193 @@ public class GASolution implements ArtSolution, Serializable {
      * individual and calculate its fitness.
      */
     public void initialise() {
-        polys = new Polygon[polygonCount];
-        cols = new Color[polygonCount];
+        xs = new int[polygonCount * polyVertexCount];
+        ys = new int[polygonCount * polyVertexCount];
+        argb = new int[polygonCount];
 
         for (int i = 0; i < polygonCount; i++) {
-            polys[i] = getRandomPoly();
-            cols[i] = getRandomColor();
+            setRandomPoly(i);
+            argb[i] = getRandomColor();
         }
 
-        validate();
+        validate(FitnessHelper.NO_CUTOFF, null);
     }
 
     /**
      * This method must be called once the new child has been created. If it is
-     * not explicitly called, it will be called once the fitness or the target
-     * image is requested. This will cause the algorithm to block until both are
-     * available.
+     * not explicitly called, it will be called once the fitness is requested.
+     * This will cause the algorithm to block until it is available.
      * 
-     * This method should also be called explicitly after object
-     * deserialisation.
+     * The solution is rendered and scored in a single task; the full image is
+     * only rendered again when it is asked for. Scoring stops once the error
+     * exceeds the cutoff (FitnessHelper.NO_CUTOFF for none), in which case
+     * getFitness() returns an error that is merely known to be worse.
+     */
+    private void validate(long cutoff, FitnessListener listener) {
+        GenomeKey key = getGenomeKey();
+        if (!fromCache(key, cutoff, listener)) {
+            submitFitness(key, cutoff, listener);
+        }
+    }
+
+    private void submitFitness(GenomeKey key, long cutoff, FitnessListener listener) {
+        if (RemoteFitnessHelper.isEnabled()) {
+            fitness = RemoteFitnessHelper.submitEvaluationTask(sourceBuffer, xs, ys, polyVertexCount, argb, renderer, antialiasSamples,
+                            fitnessTileSize, fitnessMetric, listener);
+        } else {
+            fitness = FitnessHelper.submitEvaluationTask(sourceBuffer, xs, ys, polyVertexCount, argb, renderer, antialiasSamples,
+                            fitnessTileSize, fitnessMetric, cutoff, listener);
+        }
+        FitnessCacheHelper.store(key, fitness);
+    }
+
+    /**
+     * Takes the fitness from the cache if an identical genome was evaluated
+     * recently, telling the listener straight away.
+     */
+    private boolean fromCache(GenomeKey key, long cutoff, FitnessListener listener) {
+        Future<TileFitness> cached = FitnessCacheHelper.lookup(key, cutoff);
+        if (cached == null) {
+            return false;
+        }
+        fitness = cached;
+        if (listener != null) {
+            listener.fitnessCalculated(cached);
+        }
+        return true;
+    }
+
+    private GenomeKey getGenomeKey() {
+        if (settings == null) {
+            settings = sourceImageFileName + "," + imageSize + "," + polyVertexCount + "," + renderer + "," + antialiasSamples + ","
+                            + fitnessMetric + "," + fitnessTileSize;
+        }
+        return new GenomeKey(settings, xs, ys, argb);
+    }
+
+    /**
+     * Validates an offspring against whichever of its parents it differs
+     * least from: only the tiles touched by the differing polygons are
+     * re-rendered and re-scored. Falls back to a full evaluation when too much
+     * has changed, or when evaluating on remote workers.
+     */
+    private void validate(GASolution parent, GASolution mate, long cutoff, FitnessListener listener) {
+        GenomeKey key = getGenomeKey();
+        if (fromCache(key, cutoff, listener)) {
+            return;
+        }
+        if (incrementalEvaluation && !RemoteFitnessHelper.isEnabled()) {
+            if (dirty == null || dirty.length != tileCount()) {
+                dirty = new boolean[tileCount()];
+                candidateDirty = new boolean[dirty.length];
+            }
+            Arrays.fill(dirty, false);
+            int dirtyCount = markDirtyTiles(parent, dirty);
+            GASolution base = dirtyCount == Integer.MAX_VALUE ? null : parent;
+            if (mate != parent) {
+                Arrays.fill(candidateDirty, false);
+                int count = markDirtyTiles(mate, candidateDirty);
+                if (count < dirtyCount) {
+                    boolean[] tmp = dirty;
+                    dirty = candidateDirty;
+                    candidateDirty = tmp;
+                    dirtyCount = count;
+                    base = mate;
+                }
+            }
+            if (base != null && dirtyCount <= incrementalThreshold * dirty.length) {
+                fitness = FitnessHelper.submitIncrementalFitnessTask(sourceBuffer, xs, ys, polyVertexCount, argb, renderer, antialiasSamples,
+                                fitnessMetric, base.fitness, dirty, cutoff, listener);
+                FitnessCacheHelper.store(key, fitness);
+                return;
+            }
+        }
+        submitFitness(key, cutoff, listener);
+    }
+
+    private int tileCount() {
+        int columns = (sourceBuffer.getWidth() + fitnessTileSize - 1) / fitnessTileSize;
+        int rows = (sourceBuffer.getHeight() + fitnessTileSize - 1) / fitnessTileSize;
+        return columns * rows;
+    }
+
+    /**
+     * Marks the tiles covered by the polygons that differ from those of the
+     * parent (both the old and the new shape) and returns how many tiles are
+     * dirty, or Integer.MAX_VALUE if the parent's tile errors are not usable.
+     */
+    private int markDirtyTiles(GASolution parent, boolean[] dirty) {
+        if (parent.fitness == null || parent.polygonCount != polygonCount || parent.polyVertexCount != polyVertexCount
+                        || parent.fitnessTileSize != fitnessTileSize || parent.fitnessMetric != fitnessMetric) {
+            return Integer.MAX_VALUE;
+        }
+        int count = 0;
+        for (int i = 0; i < polygonCount; i++) {
+            if (!sameGene(parent, i)) {
+                count += markTiles(RenderImageHelper.bounds(xs, ys, i * polyVertexCount, polyVertexCount), dirty);
+                count += markTiles(RenderImageHelper.bounds(parent.xs, parent.ys, i * polyVertexCount, polyVertexCount), dirty);
+            }
+        }
+        return count;
+    }
+
+    private boolean sameGene(GASolution other, int i) {
+        if (argb[i] != other.argb[i]) {
+            return false;
+        }
+        for (int j = i * polyVertexCount; j < (i + 1) * polyVertexCount; j++) {
+            if (xs[j] != other.xs[j] || ys[j] != other.ys[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Marks the tiles overlapping the bounding box {minX, minY, maxX, maxY}
+     * and returns the number of tiles that were newly marked.
      */
-    private void validate() {
-        target = RenderImageHelper.submitNewRenderTask(polys, cols, polygonCount, sourceImage.getWidth(), sourceImage.getHeight(), true);
-        fitness = FitnessHelper.submitNewFitnessTask(this.sourceImage, target);
+    private int markTiles(int[] box, boolean[] dirty) {
+        int width = sourceBuffer.getWidth();
+        int height = sourceBuffer.getHeight();
+        int columns = (width + fitnessTileSize - 1) / fitnessTileSize;
+        int fromColumn = Math.max(0, box[0]) / fitnessTileSize;
+        int toColumn = (Math.min(width, box[2]) - 1) / fitnessTileSize;
+        int fromRow = Math.max(0, box[1]) / fitnessTileSize;
+        int toRow = (Math.min(height, box[3]) - 1) / fitnessTileSize;
+        int count = 0;
+        for (int row = fromRow; row <= toRow; row++) {
+            for (int column = fromColumn; column <= toColumn; column++) {
+                if (!dirty[row * columns + column]) {
+                    dirty[row * columns + column] = true;
+                    count++;
+                }
+            }
+        }
+        return count;
     }
 
     @Override
     public long getFitness() {
         if (fitness == null) {
-            validate();
+            validate(FitnessHelper.NO_CUTOFF, null);
         }
-        return FitnessHelper.waitForFitness(fitness);
+        return FitnessHelper.waitForFitness(fitness).getTotal();
+    }
+
+    /**
+     * True if scoring stopped at the cutoff, in which case getFitness() is
+     * only known to be worse than that.
+     */
+    boolean isCutOff() {
+        getFitness();
+        return FitnessHelper.waitForFitness(fitness).isCutOff();
     }
 
     @Override
     public BufferedImage getScreenSolutionImage() {
         if (target == null) {
-            validate();
+            target = RenderImageHelper.submitNewRenderTask(xs, ys, polyVertexCount, argb, polygonCount, sourceBuffer.getWidth(), sourceBuffer.getHeight(), renderer, antialiasSamples);
         }
         return RenderImageHelper.waitForImage(target);
     }
@@ -156,36 +433,158 @@ public class GASolution implements ArtSolution, Serializable {
     }
 
     public GASolution mate(GASolution mate) {
-        GASolution offspring = this.crossover(mate);
-        offspring.mutate();
-        offspring.validate();
+        return mate(mate, null);
+    }
+
+    /**
+     * Mates as above, but adds the offspring to the given queue (if any) as
+     * soon as its fitness is known, so a caller can collect offspring in the
+     * order they finish instead of blocking on each in turn.
+     */
+    public GASolution mate(GASolution mate, BlockingQueue<GASolution> evaluated) {
+        GASolution offspring = breed(mate);
+        offspring.evaluate(this, mate, evaluated, FitnessHelper.NO_CUTOFF);
         return offspring; // and a child is born...
     }
 
-    private GASolution crossover(GASolution mate) {
-        int singlePoint = (int) (Math.random() * polygonCount);
-        GASolution offspring = new GASolution(sourceImageFileName, sourceImage, properties);
+    /**
+     * Crossover and mutation only; the offspring still has to be evaluated.
+     */
+    GASolution breed(GASolution mate) {
+        return breed(mate, null);
+    }
+
+    /**
+     * As above, but the offspring reuses the spare (a recycled solution, see
+     * recycle()) if there is one of the right size.
+     */
+    GASolution breed(GASolution mate, GASolution spare) {
+        GASolution offspring = this.crossover(mate, spare);
+        offspring.mutate();
+        return offspring;
+    }
+
+    /**
+     * A copy with exactly one mutation, picked with the same odds as the
+     * operations of mutate(): a vertex or a colour channel modified, a
+     * polygon made dormant or two polygons swapped. Such small steps keep
+     * the dirty area, and so the incremental evaluation, small.
+     */
+    GASolution mutant() {
+        return mutant(null);
+    }
 
-        Polygon[] childPoly = new Polygon[polygonCount];
-        Color[] childCol = new Color[polygonCount];
+    /**
+     * As above, reusing the spare (see breed()).
+     */
+    GASolution mutant(GASolution spare) {
+        GASolution offspring = offspring(spare);
+        System.arraycopy(xs, 0, offspring.xs, 0, xs.length);
+        System.arraycopy(ys, 0, offspring.ys, 0, ys.length);
+        System.arraycopy(argb, 0, offspring.argb, 0, argb.length);
+        offspring.mutateOnce();
+        return offspring;
+    }
 
-        // Copy first set of genes from the first parent.
-        for (int i = 0; i < singlePoint; i++) {
-            childPoly[i] = new Polygon();
-            for (int j = 0; j < polys[i].npoints; j++)
-                childPoly[i].addPoint(polys[i].xpoints[j], polys[i].ypoints[j]);
-            childCol[i] = new Color(cols[i].getRed(), cols[i].getGreen(), cols[i].getBlue(), cols[i].getAlpha());
+    /**
+     * A newborn sibling with room for the genes: the spare, if it fits, or
+     * else a new solution.
+     */
+    private GASolution offspring(GASolution spare) {
+        GASolution offspring = spare;
+        if (offspring == null || offspring.xs == null || offspring.xs.length != xs.length || offspring.argb.length != argb.length) {
+            offspring = newSibling();
+            offspring.xs = new int[xs.length];
+            offspring.ys = new int[ys.length];
+            offspring.argb = new int[argb.length];
         }
-        // Copy second set from second parent.
-        for (int i = singlePoint; i < polygonCount; i++) {
-            childPoly[i] = new Polygon();
-            for (int j = 0; j < mate.polys[i].npoints; j++)
-                childPoly[i].addPoint(mate.polys[i].xpoints[j], mate.polys[i].ypoints[j]);
-            childCol[i] = new Color(mate.cols[i].getRed(), mate.cols[i].getGreen(), mate.cols[i].getBlue(), mate.cols[i].getAlpha());
+        offspring.newborn = true;
+        return offspring;
+    }
+
+    /**
+     * Forgets the fitness, so the solution (and its genes' arrays) can be
+     * reused as a spare for the next offspring. Only for solutions nothing
+     * else holds on to: offspring culled before ever joining a population.
+     */
+    void recycle() {
+        fitness = null;
+        target = null;
+        coarseFitness().clear();
+    }
+
+    /**
+     * Evaluates an offspring of the given parents (see validate()), adding it
+     * to the queue (if any) once its fitness is known, or once it is known to
+     * be worse than the cutoff.
+     */
+    void evaluate(GASolution parent, GASolution mate, final BlockingQueue<GASolution> evaluated, long cutoff) {
+        validate(parent, mate, cutoff, evaluated == null ? null : new FitnessListener() {
+            @Override
+            public void fitnessCalculated(Future<TileFitness> fitness) {
+                // May run before validate() has stored the future.
+                GASolution.this.fitness = fitness;
+                evaluated.add(GASolution.this);
+            }
+        });
+    }
+
+    /**
+     * The coarse estimates, created on first use. Migration shares solutions
+     * between islands, so they may be asked for from several threads.
+     */
+    private synchronized ConcurrentMap<Integer, Future<TileFitness>> coarseFitness() {
+        if (coarseFitness == null) {
+            coarseFitness = new ConcurrentHashMap<Integer, Future<TileFitness>>();
         }
-        // Pass "genes" to offspring.
-        offspring.polys = childPoly;
-        offspring.cols = childCol;
+        return coarseFitness;
+    }
+
+    /**
+     * Starts estimating the fitness on the source scaled down by the given
+     * factor, unless that has been done already. The polygons are scaled down
+     * with it, so this costs about 1/factor^2 of a full evaluation.
+     */
+    void submitCoarseFitness(int factor) {
+        coarseFitness().computeIfAbsent(factor, new Function<Integer, Future<TileFitness>>() {
+            @Override
+            public Future<TileFitness> apply(Integer factor) {
+                int[] scaledXs = new int[xs.length];
+                int[] scaledYs = new int[ys.length];
+                for (int j = 0; j < xs.length; j++) {
+                    scaledXs[j] = (xs[j] + factor / 2) / factor;
+                    scaledYs[j] = (ys[j] + factor / 2) / factor;
+                }
+                return FitnessHelper.submitEvaluationTask(sourceBuffer.getLevel(factor), scaledXs, scaledYs, polyVertexCount, argb,
+                                renderer, antialiasSamples, fitnessTileSize, fitnessMetric, FitnessHelper.NO_CUTOFF, null);
+            }
+        });
+    }
+
+    /**
+     * The estimate started by submitCoarseFitness(), scaled up to the full
+     * resolution. Blocks until it is available.
+     */
+    long getCoarseFitness(int factor) {
+        submitCoarseFitness(factor);
+        return FitnessHelper.waitForFitness(coarseFitness().get(factor)).getTotal() * factor * factor;
+    }
+
+    private GASolution crossover(GASolution mate, GASolution spare) {
+        int singlePoint = (int) (RandomHelper.nextDouble() * polygonCount);
+        GASolution offspring = offspring(spare);
+
+        int vertices = polygonCount * polyVertexCount;
+        int split = singlePoint * polyVertexCount;
+
+        // Copy first set of genes from the first parent...
+        System.arraycopy(xs, 0, offspring.xs, 0, split);
+        System.arraycopy(ys, 0, offspring.ys, 0, split);
+        System.arraycopy(argb, 0, offspring.argb, 0, singlePoint);
+        // ...and the second set from the second parent.
+        System.arraycopy(mate.xs, split, offspring.xs, split, vertices - split);
+        System.arraycopy(mate.ys, split, offspring.ys, split, vertices - split);
+        System.arraycopy(mate.argb, singlePoint, offspring.argb, singlePoint, polygonCount - singlePoint);
 
         return offspring;
     }
@@ -200,9 +599,9 @@ public class GASolution implements ArtSolution, Serializable {
         // need a "reassignment" operator to capitalise further on this,
         // increasing exploration later in the process.
 
-        while (Math.random() < mutateDormantChance) {
-            int which = (int) (Math.random() * polygonCount);
-            cols[which] = new Color(cols[which].getRed(), cols[which].getGreen(), cols[which].getBlue(), 0);
+        while (RandomHelper.nextDouble() < mutateDormantChance) {
+            int which = (int) (RandomHelper.nextDouble() * polygonCount);
+            argb[which] = argb[which] & 0x00ffffff;
         }
     }
 
@@ -210,68 +609,97 @@ public class GASolution implements ArtSolution, Serializable {
      * Rearrange some of the genes in the genome.
      */
     private void mutateRearrange() {
-        while (Math.random() < mutateRearrengeChance) {
-            int a = (int) (Math.random() * polygonCount);
-            int b = (a + (int) (Math.random() * polygonCount)) % polygonCount;
-            Polygon poly = polys[a];
-            Color col = cols[a];
-
-            polys[a] = polys[b];
-            cols[a] = cols[b];
+        while (RandomHelper.nextDouble() < mutateRearrengeChance) {
+            int a = (int) (RandomHelper.nextDouble() * polygonCount);
+            int b = (a + (int) (RandomHelper.nextDouble() * polygonCount)) % polygonCount;
+            swapPolygons(a, b);
+        }
+    }
 
-            polys[b] = poly;
-            cols[b] = col;
+    private void swapPolygons(int a, int b) {
+        for (int j = 0; j < polyVertexCount; j++) {
+            swap(xs, a * polyVertexCount + j, b * polyVertexCount + j);
+            swap(ys, a * polyVertexCount + j, b * polyVertexCount + j);
         }
+        swap(argb, a, b);
+    }
+
+    private static void swap(int[] values, int a, int b) {
+        int tmp = values[a];
+        values[a] = values[b];
+        values[b] = tmp;
     }
 
     private static double distribution(int max) {
-        double delta = Math.random() * Math.random() * max;
-        return Math.random() > 0.5 ? delta : -delta;
+        double delta = RandomHelper.nextDouble() * RandomHelper.nextDouble() * max;
+        return RandomHelper.nextDouble() > 0.5 ? delta : -delta;
     }
 
     /**
      * Randomly change each component probabilistically.
      */
     private void mutateChance() {
-        int width = sourceImage.getWidth();
-        int height = sourceImage.getHeight();
+        SplittableRandom random = RandomHelper.current();
 
         // Modify the polygons.
-        for (int i = 0; i < polygonCount; i++) {
-            for (int j = 0; j < polys[i].npoints; j++) {
-                if (Math.random() < mutateModifyChance) {
-                    polys[i].xpoints[j] = polys[i].xpoints[j] + (int) distribution(width);
-                    polys[i].ypoints[j] = polys[i].ypoints[j] + (int) distribution(height);
-                    if (polys[i].xpoints[j] < 0)
-                        polys[i].xpoints[j] = 0;
-                    else if (polys[i].xpoints[j] > width)
-                        polys[i].xpoints[j] = width;
-                    if (polys[i].ypoints[j] < 0)
-                        polys[i].ypoints[j] = 0;
-                    else if (polys[i].ypoints[j] > height)
-                        polys[i].ypoints[j] = height;
-                }
+        for (int j = 0; j < xs.length; j++) {
+            if (random.nextDouble() < mutateModifyChance) {
+                modifyVertex(j);
             }
         }
 
-        // Modify the colours.
+        // Modify the colours, channel by channel (alpha, red, green, blue).
         for (int i = 0; i < polygonCount; i++) {
-            float[] comp = new float[] { cols[i].getRed() / 255f, cols[i].getGreen() / 255f, cols[i].getBlue() / 255f, cols[i].getAlpha() / 255f };
-            boolean hasChanged = false;
-            for (int j = 0; j < 4; j++) {
-                if (Math.random() < mutateModifyChance) {
-                    comp[j] = comp[j] + (float) distribution(1);
-                    if (comp[j] < 0) {
-                        comp[j] = 0;
-                    } else if (comp[j] > 1) {
-                        comp[j] = 1;
-                    }
-                    hasChanged = true;
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                if (random.nextDouble() < mutateModifyChance) {
+                    modifyChannel(i, shift);
                 }
             }
-            if (hasChanged) {
-                cols[i] = new Color(comp[0], comp[1], comp[2], comp[3]);
-            }
+        }
+    }
+
+    private void modifyVertex(int j) {
+        int width = sourceBuffer.getWidth();
+        int height = sourceBuffer.getHeight();
+
+        xs[j] = xs[j] + (int) distribution(width);
+        ys[j] = ys[j] + (int) distribution(height);
+        if (xs[j] < 0)
+            xs[j] = 0;
+        else if (xs[j] > width)
+            xs[j] = width;
+        if (ys[j] < 0)
+            ys[j] = 0;
+        else if (ys[j] > height)
+            ys[j] = height;
+    }
+
+    private void modifyChannel(int i, int shift) {
+        double channel = ((argb[i] >>> shift) & 0xff) / 255.0 + distribution(1);
+        if (channel < 0) {
+            channel = 0;
+        } else if (channel > 1) {
+            channel = 1;
+        }
+        argb[i] = (argb[i] & ~(0xff << shift)) | ((int) (channel * 255 + 0.5) << shift);
+    }
+
+    /**
+     * Applies one of the mutations, each with the odds it has in mutate().
+     */
+    private void mutateOnce() {
+        double vertices = mutateModifyChance * xs.length;
+        double channels = mutateModifyChance * polygonCount * 4;
+        double pick = RandomHelper.nextDouble() * (vertices + channels + mutateDormantChance + mutateRearrengeChance);
+        int which = (int) (RandomHelper.nextDouble() * polygonCount);
+        if (pick < vertices) {
+            modifyVertex((int) (RandomHelper.nextDouble() * xs.length));
+        } else if (pick < vertices + channels) {
+            modifyChannel(which, 8 * (int) (RandomHelper.nextDouble() * 4));
+        } else if (pick < vertices + channels + mutateDormantChance) {
+            argb[which] = argb[which] & 0x00ffffff;
+        } else {
+            swapPolygons(which, (which + (int) (RandomHelper.nextDouble() * polygonCount)) % polygonCount);
         }
     }
 
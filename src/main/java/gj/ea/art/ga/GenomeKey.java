@@ -0,0 +1,69 @@
+package gj.ea.art.ga;
+
+/**
+ * Identifies a GASolution's genome, together with the settings that
+ * determine its fitness, as a key into the fitness cache. The key is a
+ * 128-bit content hash over the genes (two independent 64-bit hashes): it
+ * keeps no reference to the genes, whose arrays are recycled once a solution
+ * is culled. Two different genomes would have to collide on both hashes to
+ * be confused.
+ * 
+ * @author jaco
+ *
+ */
+final class GenomeKey {
+
+    private final String settings;
+    private final long hash;
+    private final long mix;
+
+    GenomeKey(String settings, int[] xs, int[] ys, int[] argb) {
+        this.settings = settings;
+        long h = settings.hashCode();
+        h = hash(h, xs);
+        h = hash(h, ys);
+        h = hash(h, argb);
+        this.hash = h;
+        long m = settings.hashCode();
+        m = mix(m, xs);
+        m = mix(m, ys);
+        m = mix(m, argb);
+        this.mix = m;
+    }
+
+    // FNV-1a, a value at a time.
+    private static long hash(long h, int[] values) {
+        h ^= 0xcbf29ce484222325L;
+        for (int value : values) {
+            h = (h ^ value) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    // Multiply-rotate with the SplitMix64 constants, independent of FNV-1a.
+    private static long mix(long m, int[] values) {
+        m ^= values.length * 0x9e3779b97f4a7c15L;
+        for (int value : values) {
+            m = Long.rotateLeft((m + value) * 0xbf58476d1ce4e5b9L, 31) * 0x94d049bb133111ebL;
+        }
+        return m;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof GenomeKey)) {
+            return false;
+        }
+        GenomeKey other = (GenomeKey) obj;
+        return hash == other.hash && mix == other.mix && settings.equals(other.settings);
+    }
+
+}
@@ -0,0 +1,24 @@
+package gj.ea.art.ga;
+
+import java.util.Properties;
+
+/**
+ * The (1+lambda) strategy: a single solution, of which offspringCount
+ * single-mutation copies are scored every generation. The best copy takes
+ * the solution's place unless it is worse; accepting an equal copy lets the
+ * search drift across plateaus. The populationSize property is ignored.
+ *
+ * @author jaco
+ *
+ */
+public class HillClimber extends SteadyStateGA {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    void setParameters(Properties properties) {
+        super.setParameters(properties);
+        populationSize = 1;
+    }
+
+}
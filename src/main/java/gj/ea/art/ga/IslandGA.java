@@ -0,0 +1,299 @@
+package gj.ea.art.ga;
+
+import gj.ea.art.ArtSolution;
+import gj.ea.art.BinaryState;
+import gj.ea.art.EvolutionaryAlgorithm;
+import gj.ea.art.helpers.AlgorithmHelper;
+import gj.ea.art.helpers.PersistenceHelper;
+import gj.ea.art.helpers.RandomHelper;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The island model: a number of independent GA populations (islands), each
+ * evolving on its own thread. Every migrationInterval generations the islands
+ * meet and each sends copies of its best solutions to another island, either
+ * the next one in a ring or a random one; in between they do not synchronise
+ * at all. One call to iterate() therefore advances every island by
+ * migrationInterval generations.
+ *
+ * Properties: islandCount (default 4), migrationInterval (default 50),
+ * migrationCount (default 1) and migrationTopology ("ring", the default, or
+ * "random"). The other properties apply to each island, populationSize
+ * included.
+ *
+ * @author jaco
+ *
+ */
+public class IslandGA implements EvolutionaryAlgorithm, BinaryState, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // Version of the binary state written by writeState().
+    private static final int STATE_VERSION = 1;
+
+    // Parameters as passed in via properties
+    private int islandCount;
+    private int migrationInterval;
+    private int migrationCount;
+    private boolean randomTopology;
+
+    // Island values
+    private GA[] islands;
+    private long timeSpent; // the combined time in milliseconds spent.
+    private int generationCounter; // the number of generations (of each island).
+    private long previousFitness; // previous epoch's best fitness.
+    private int migrations; // the number of times the islands met.
+    private String feedback; // a feedback string.
+
+    private transient ExecutorService threads;
+    private transient SplittableRandom[] randoms; // one per island, whichever thread runs it.
+
+    /**
+     * The islands do not know they are islands after deserialisation.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        for (GA island : islands) {
+            island.setIsland();
+        }
+    }
+
+    @Override
+    public void initialise(String sourceImageFile, Properties properties) {
+        setParameters(properties);
+        islands = new GA[islandCount];
+        timeSpent = 0;
+        generationCounter = 0;
+        previousFitness = -1;
+        migrations = 0;
+        feedback = "I have not started yet!";
+
+        for (int i = 0; i < islands.length; i++) {
+            islands[i] = new GA();
+            islands[i].setIsland();
+            islands[i].initialise(sourceImageFile, properties);
+        }
+    }
+
+    private void setParameters(Properties properties) {
+        islandCount = Integer.parseInt(properties.getProperty("islandCount", "4"));
+        migrationInterval = Math.max(1, Integer.parseInt(properties.getProperty("migrationInterval", "50")));
+        migrationCount = Integer.parseInt(properties.getProperty("migrationCount", "1"));
+        randomTopology = properties.getProperty("migrationTopology", "ring").equalsIgnoreCase("random");
+    }
+
+    /**
+     * The islands wait on their evaluations, so each gets a thread of its own
+     * rather than one from the evaluation pool.
+     */
+    private synchronized ExecutorService getThreads() {
+        if (threads == null) {
+            threads = Executors.newFixedThreadPool(islands.length, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "island");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return threads;
+    }
+
+    @Override
+    public void iterate() {
+
+        // Start the stop-watch.
+        long stopWatch = System.currentTimeMillis();
+
+        // Each island draws from its own generator, so a seeded run replays
+        // exactly however the islands are spread over the threads.
+        if (randoms == null) {
+            randoms = new SplittableRandom[islands.length];
+            for (int i = 0; i < islands.length; i++) {
+                randoms[i] = RandomHelper.split();
+            }
+        }
+
+        // Let every island evolve on its own until the next migration.
+        List<Future<?>> epochs = new ArrayList<Future<?>>();
+        for (int k = 0; k < islands.length; k++) {
+            final GA island = islands[k];
+            final SplittableRandom random = randoms[k];
+            epochs.add(getThreads().submit(new Runnable() {
+                @Override
+                public void run() {
+                    RandomHelper.setCurrent(random);
+                    for (int i = 0; i < migrationInterval; i++) {
+                        island.iterate();
+                    }
+                }
+            }));
+        }
+        try {
+            for (Future<?> epoch : epochs) {
+                epoch.get();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+
+        migrate();
+
+        long best = getBestSolution().getFitness();
+        long delta = 0;
+        if (best < previousFitness || previousFitness == -1) {
+            delta = previousFitness - best;
+            previousFitness = best;
+            PersistenceHelper.saveStateInBackground(snapshot(), AlgorithmHelper.STATE_FILE);
+        }
+
+        // Update the variables.
+        generationCounter += migrationInterval;
+        timeSpent = timeSpent + (System.currentTimeMillis() - stopWatch);
+
+        // Construct the feedback String.
+        long worst = 0;
+        for (GA island : islands) {
+            worst = Math.max(worst, island.getBestSolution().getFitness());
+        }
+        feedback = "Generation: " + generationCounter +
+            " Islands: " + islands.length +
+            " Best: " + best +
+            " Worst island: " + worst +
+            " Migrations: " + migrations +
+            " Time: " + Math.round((timeSpent / 1000.0) * 10) / 10.0 + "sec" +
+            (delta > 0 ? " (improvement: " + delta + ")" : "");
+    }
+
+    /**
+     * Sends the best migrationCount solutions of every island to the next
+     * island (ring) or to a random other island. The emigrants are picked
+     * before any arrive, so a solution moves at most one island per epoch.
+     */
+    private void migrate() {
+        if (islands.length < 2 || migrationCount <= 0) {
+            return;
+        }
+        GASolution[][] emigrants = new GASolution[islands.length][];
+        for (int i = 0; i < islands.length; i++) {
+            emigrants[i] = islands[i].getMigrants(migrationCount);
+        }
+        for (int i = 0; i < islands.length; i++) {
+            int destination = (i + 1) % islands.length;
+            if (randomTopology) {
+                destination = (i + 1 + (int) (RandomHelper.nextDouble() * (islands.length - 1))) % islands.length;
+            }
+            islands[destination].immigrate(emigrants[i]);
+        }
+        migrations++;
+    }
+
+    /**
+     * A copy to checkpoint while evolution carries on.
+     */
+    private IslandGA snapshot() {
+        IslandGA copy = new IslandGA();
+        copy.islandCount = islandCount;
+        copy.migrationInterval = migrationInterval;
+        copy.migrationCount = migrationCount;
+        copy.randomTopology = randomTopology;
+        copy.islands = new GA[islands.length];
+        for (int i = 0; i < islands.length; i++) {
+            copy.islands[i] = islands[i].snapshot();
+        }
+        copy.timeSpent = timeSpent;
+        copy.generationCounter = generationCounter;
+        copy.previousFitness = previousFitness;
+        copy.migrations = migrations;
+        copy.feedback = feedback;
+        return copy;
+    }
+
+    /**
+     * The binary state: the island parameters and counters, followed by each
+     * island's own state.
+     */
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        out.writeInt(STATE_VERSION);
+        out.writeInt(migrationInterval);
+        out.writeInt(migrationCount);
+        out.writeBoolean(randomTopology);
+        out.writeLong(timeSpent);
+        out.writeInt(generationCounter);
+        out.writeLong(previousFitness);
+        out.writeInt(migrations);
+        out.writeUTF(feedback);
+        out.writeInt(islands.length);
+        for (GA island : islands) {
+            island.writeState(out);
+        }
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        int version = in.readInt();
+        if (version != STATE_VERSION) {
+            throw new IOException("Unsupported island state version " + version + ".");
+        }
+        migrationInterval = in.readInt();
+        migrationCount = in.readInt();
+        randomTopology = in.readBoolean();
+        timeSpent = in.readLong();
+        generationCounter = in.readInt();
+        previousFitness = in.readLong();
+        migrations = in.readInt();
+        feedback = in.readUTF();
+        islands = new GA[in.readInt()];
+        islandCount = islands.length;
+        for (int i = 0; i < islands.length; i++) {
+            islands[i] = new GA();
+            islands[i].setIsland();
+            islands[i].readState(in);
+        }
+    }
+
+    @Override
+    public ArtSolution getBestSolution() {
+        ArtSolution best = islands[0].getBestSolution();
+        for (GA island : islands) {
+            if (island.getBestSolution().getFitness() < best.getFitness()) {
+                best = island.getBestSolution();
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public boolean stoppingConditionMet() {
+        return false;
+    }
+
+    @Override
+    public String getProgressString() {
+        return feedback;
+    }
+
+    @Override
+    public int getGenerationCounter() {
+        return generationCounter;
+    }
+
+}
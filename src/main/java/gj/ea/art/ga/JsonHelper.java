@@ -2,8 +2,6 @@ package gj.ea.art.ga;
 
 import com.google.gson.Gson;
 
-import java.awt.*;
-
 /**
  * Created by IntelliJ IDEA.
  * User: nicok
@@ -22,18 +20,18 @@ public class JsonHelper {
         JsonPolygon[] mapped = new JsonPolygon[s.polygonCount];
         for (int i = 0; i < s.polygonCount; i++) {
             mapped[i] = new JsonPolygon();
-            mapped[i].polygon = new JsonPoint[s.polys[i].npoints];
-            for (int k = 0; k < s.polys[i].npoints; k++) {
+            mapped[i].polygon = new JsonPoint[s.polyVertexCount];
+            for (int k = 0; k < s.polyVertexCount; k++) {
                 mapped[i].polygon[k] = new JsonPoint();
-                mapped[i].polygon[k].x = s.polys[i].xpoints[k];
-                mapped[i].polygon[k].y = -1 * s.polys[i].ypoints[k]; // jsdoom engine is cartesian - need to flip the y
+                mapped[i].polygon[k].x = s.xs[i * s.polyVertexCount + k];
+                mapped[i].polygon[k].y = -1 * s.ys[i * s.polyVertexCount + k]; // jsdoom engine is cartesian - need to flip the y
             }
-            Color col = s.cols[i];
+            int col = s.argb[i];
             JsonColor c = new JsonColor();
-            c.r = col.getRed();
-            c.g = col.getGreen();
-            c.b = col.getBlue();
-            c.a = col.getAlpha();
+            c.r = (col >> 16) & 0xff;
+            c.g = (col >> 8) & 0xff;
+            c.b = col & 0xff;
+            c.a = col >>> 24;
 
             mapped[i].color = c;
         }
@@ -0,0 +1,44 @@
+package gj.ea.art.ga;
+
+import gj.ea.art.helpers.RandomHelper;
+
+import java.util.Properties;
+
+/**
+ * A steady-state strategy: every generation only offspringCount offspring
+ * are bred, each a copy of one solution (preferably a fitter one) with a
+ * single mutation, and each replaces the worst solution if it is better.
+ * An offspring is scored incrementally against its parent and given up on as
+ * soon as it is worse than the worst solution, so a generation costs little
+ * more than re-scoring the few tiles its mutations touched.
+ *
+ * Properties: offspringCount (default 4); the others as for GA.
+ *
+ * @author jaco
+ *
+ */
+public class SteadyStateGA extends GA {
+
+    private static final long serialVersionUID = 1L;
+
+    private int offspringCount;
+
+    @Override
+    void setParameters(Properties properties) {
+        super.setParameters(properties);
+        offspringCount = Math.max(1, Integer.parseInt(properties.getProperty("offspringCount", "4")));
+    }
+
+    @Override
+    int getOffspringCount() {
+        return offspringCount;
+    }
+
+    @Override
+    GASolution breed(GASolution[] population, int i, int[] parents, int[] mates) {
+        parents[i] = (int) (RandomHelper.nextDouble() * RandomHelper.nextDouble() * population.length);
+        mates[i] = parents[i];
+        return population[parents[i]].mutant(spare());
+    }
+
+}
@@ -0,0 +1,105 @@
+package gj.ea.art.helpers;
+
+import gj.ea.art.EvolutionaryAlgorithm;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Creates (or resumes) the evolutionary algorithm selected in the properties.
+ * Shared by the Swing and the headless front-ends.
+ *
+ * @author jaco
+ *
+ */
+public final class AlgorithmHelper {
+
+    private static final Logger logger = Logger.getLogger(AlgorithmHelper.class);
+
+    public static final String DEFAULT_ALGORITHM = "gj.ea.art.ga.GA";
+
+    public static final String STATE_FILE = "eastate";
+
+    private AlgorithmHelper() {
+    }
+
+    /**
+     * Creates a new instance of the algorithm named by the "algorithm"
+     * property and initialises it with the source image.
+     *
+     * @param sourceImageFileName
+     * @param properties
+     * @return
+     */
+    public static EvolutionaryAlgorithm createNew(String sourceImageFileName, Properties properties) {
+        configure(properties);
+        return instantiate(sourceImageFileName, properties);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static EvolutionaryAlgorithm instantiate(String sourceImageFileName, Properties properties) {
+        String algorithm = properties.getProperty("algorithm", DEFAULT_ALGORITHM);
+        Class<EvolutionaryAlgorithm> clazz;
+        try {
+            clazz = (Class<EvolutionaryAlgorithm>) Class.forName(algorithm);
+            logger.debug("You selected the " + clazz.getCanonicalName() + " strategy.");
+            EvolutionaryAlgorithm ea = clazz.getDeclaredConstructor().newInstance();
+            ea.initialise(sourceImageFileName, properties);
+            return ea;
+        } catch (ClassNotFoundException e) {
+            logger.error("I could not find the EA strategy (" + algorithm + " you wanted.)");
+            throw new RuntimeException(e);
+        } catch (InstantiationException e) {
+            logger.error("I could not instantiate the EA class (" + algorithm + ".)");
+            throw new RuntimeException(e);
+        } catch (IllegalAccessException e) {
+            logger.error("The EA class (" + algorithm + ") is badly defined and I got an IllegalAccessException.");
+            throw new RuntimeException(e);
+        } catch (NoSuchMethodException e) {
+            logger.error("The EA class (" + algorithm + ") has no constructor without arguments.");
+            throw new RuntimeException(e);
+        } catch (InvocationTargetException e) {
+            logger.error("The constructor of the EA class (" + algorithm + ") failed.");
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Resumes from the 'eastate' file if there is one, otherwise creates a new
+     * algorithm.
+     *
+     * @param sourceImageFileName
+     * @param properties
+     * @return
+     */
+    public static EvolutionaryAlgorithm loadOrCreate(String sourceImageFileName, Properties properties) {
+        configure(properties);
+        if (new File(STATE_FILE).exists()) {
+            logger.debug("I found a '" + STATE_FILE + "' file, attempting to load...");
+            EvolutionaryAlgorithm ea = PersistenceHelper.loadState(STATE_FILE);
+            if (ea != null) {
+                logger.debug("The saved state utilised the " + ea.getClass().getCanonicalName() + " strategy.");
+                return ea;
+            }
+        } else {
+            logger.debug("I did not find any '" + STATE_FILE + "' file, creating a new EA, based on defined properties.");
+        }
+        return instantiate(sourceImageFileName, properties);
+    }
+
+    /**
+     * Passes the properties on to the helpers, once per run.
+     */
+    private static void configure(Properties properties) {
+        ExecutorHelper.setParameters(properties);
+        FitnessCacheHelper.setParameters(properties);
+        PersistenceHelper.setParameters(properties);
+        RemoteFitnessHelper.setParameters(properties);
+        MetricsHelper.setParameters(properties);
+        RandomHelper.setParameters(properties);
+    }
+
+}
@@ -0,0 +1,63 @@
+package gj.ea.art.helpers;
+
+import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Owns the work-stealing pool that renders and scores solutions. It is sized
+ * from the "threadCount" property, or the number of processors when that is
+ * 0 (the default).
+ * 
+ * @author jaco
+ *
+ */
+public final class ExecutorHelper {
+
+    private static final Logger logger = Logger.getLogger(ExecutorHelper.class);
+
+    private static ForkJoinPool pool;
+
+    private static volatile boolean splitEvaluation = true;
+
+    private ExecutorHelper() {
+    }
+
+    /**
+     * Applies the "threadCount" and "splitEvaluation" properties. The pool is
+     * only replaced if its size changes; work already submitted to the old
+     * pool is allowed to finish.
+     */
+    public static synchronized void setParameters(Properties properties) {
+        int threadCount = Integer.parseInt(properties.getProperty("threadCount", "0"));
+        if (threadCount <= 0) {
+            threadCount = Runtime.getRuntime().availableProcessors();
+        }
+        splitEvaluation = Boolean.parseBoolean(properties.getProperty("splitEvaluation", "true"));
+        if (pool == null || pool.getParallelism() != threadCount) {
+            if (pool != null) {
+                pool.shutdown();
+            }
+            pool = new ForkJoinPool(threadCount);
+            logger.debug("Evaluating with " + threadCount + " threads" + (splitEvaluation ? ", splitting images when idle." : "."));
+        }
+    }
+
+    public static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return pool;
+    }
+
+    /**
+     * Whether a single evaluation may be split over idle threads.
+     * 
+     * @return
+     */
+    public static boolean isSplitEvaluation() {
+        return splitEvaluation;
+    }
+
+}
@@ -0,0 +1,90 @@
+package gj.ea.art.helpers;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the fitness of recently evaluated genomes, so that duplicates
+ * (e.g. offspring identical to a parent) are not rendered and scored again.
+ * The least recently used entries are evicted once "fitnessCacheSize"
+ * (default 1000, 0 for no cache) is reached. The keys are supplied by the
+ * algorithm and must include everything that affects the fitness.
+ * 
+ * @author jaco
+ *
+ */
+public final class FitnessCacheHelper {
+
+    private static int capacity = 1000;
+
+    private static final Map<Object, Future<TileFitness>> cache = new LinkedHashMap<Object, Future<TileFitness>>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, Future<TileFitness>> eldest) {
+            return size() > capacity;
+        }
+    };
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private FitnessCacheHelper() {
+    }
+
+    public static synchronized void setParameters(Properties properties) {
+        capacity = Integer.parseInt(properties.getProperty("fitnessCacheSize", "1000"));
+        cache.clear();
+    }
+
+    /**
+     * The finished fitness of the genome, or null if it is not known. A fitness
+     * that was cut off is only returned if it still proves the genome worse
+     * than the given cutoff. An evaluation that failed is forgotten, so that
+     * the genome is evaluated again.
+     */
+    public static Future<TileFitness> lookup(Object key, long cutoff) {
+        Future<TileFitness> fitness;
+        synchronized (FitnessCacheHelper.class) {
+            fitness = capacity > 0 ? cache.get(key) : null;
+        }
+        if (fitness != null && fitness.isDone()) {
+            TileFitness tiles;
+            try {
+                tiles = fitness.get();
+            } catch (Exception e) {
+                synchronized (FitnessCacheHelper.class) {
+                    cache.remove(key, fitness);
+                }
+                tiles = null;
+            }
+            if (tiles != null && (!tiles.isCutOff() || tiles.getTotal() > cutoff)) {
+                hits.incrementAndGet();
+                return fitness;
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Remembers the (possibly still running) evaluation of the genome.
+     */
+    public static synchronized void store(Object key, Future<TileFitness> fitness) {
+        if (capacity > 0) {
+            cache.put(key, fitness);
+        }
+    }
+
+    public static long getHits() {
+        return hits.get();
+    }
+
+    public static long getMisses() {
+        return misses.get();
+    }
+
+}
@@ -1,57 +1,354 @@
 package gj.ea.art.helpers;
 
+import gj.ea.art.helpers.MetricsHelper.Phase;
+import gj.ea.art.helpers.RenderImageHelper.Renderer;
+
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Submits a solution to calculate the fitness.
+ * Submits a solution to calculate the fitness. Every evaluation renders and
+ * scores on the same thread; callers can wait on the returned future or be
+ * told through a FitnessListener.
  * 
  * @author jaco
  *
  */
 public final class FitnessHelper {
 
-    private static final int THREAD_COUNT = 5;
+    // Keep splitting while fewer than this many of our own subtasks are
+    // waiting to be stolen.
+    private static final int SURPLUS_TASKS = 2;
+
+    // With a cutoff, rows are scored every INTERLEAVE-th row first.
+    private static final int INTERLEAVE = 4;
 
-    private static ExecutorService service = Executors.newFixedThreadPool(THREAD_COUNT);
+    /**
+     * No cutoff: always score the whole solution.
+     */
+    public static final long NO_CUTOFF = Long.MAX_VALUE;
+
+    // Interleaved row orders, by number of rows (see interleave()).
+    private static final Map<Integer, int[]> orders = new ConcurrentHashMap<Integer, int[]>();
+
+    // Polygon buckets to reuse, per thread. A thread waiting for the rows of
+    // one evaluation may start another, so each holds a few.
+    private static final ThreadLocal<Deque<PolygonBuckets>> buckets = new ThreadLocal<Deque<PolygonBuckets>>() {
+        @Override
+        protected Deque<PolygonBuckets> initialValue() {
+            return new ArrayDeque<PolygonBuckets>();
+        }
+    };
 
     private FitnessHelper() {
     }
 
-    private static long rgb(int e1, int e2) {
-        int e1b = e1 & 0xff, e2b = e2 & 0xff;
-        int e1g = (e1 >> 8) & 0xff, e2g = (e2 >> 8) & 0xff;
-        int e1r = (e1 >> 16) & 0xff, e2r = (e2 >> 16) & 0xff;
-        return (long) Math.sqrt(Math.pow(e1b - e2b, 2) + Math.pow(e1g - e2g, 2) + Math.pow(e1r - e2r, 2));
+    /**
+     * Evaluates a range of tile rows.
+     */
+    private interface Rows {
+        void evaluate(int from, int to);
+    }
+
+    /**
+     * Evaluates the tile rows from 'from' up to (excluding) 'to'. While other
+     * threads in the pool are idle, the rows are halved and the halves
+     * evaluated in parallel, so a single solution can use many cores.
+     */
+    private static final class RowSplitter extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Rows rows;
+        private final int from;
+        private final int to;
+
+        RowSplitter(Rows rows, int from, int to) {
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1 && ExecutorHelper.isSplitEvaluation() && getSurplusQueuedTaskCount() < SURPLUS_TASKS) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RowSplitter(rows, from, middle), new RowSplitter(rows, middle, to));
+            } else {
+                rows.evaluate(from, to);
+            }
+        }
+    }
+
+    /**
+     * The summed error of the pixels in (x, y, width, height) of the source
+     * against the same pixels in the rendered image, which itself starts at
+     * (originX, originY) of the canvas. The rendered pixels are read straight
+     * from the image's backing array.
+     */
+    private static long error(SourceBuffer source, BufferedImage targetImage, int originX, int originY, int x, int y, int width, int height,
+                    FitnessMetric metric) {
+        int[] sourceRGB = source.getRGB();
+        int stride = targetImage.getWidth();
+        DataBuffer buffer = targetImage.getRaster().getDataBuffer();
+        long tmp = 0;
+        if (buffer instanceof DataBufferInt) {
+            int[] target = ((DataBufferInt) buffer).getData();
+            for (int j = y; j < y + height; j++) {
+                tmp += metric.error(sourceRGB, j * source.getWidth() + x, target, (j - originY) * stride + x - originX, width);
+            }
+        } else if (buffer instanceof DataBufferByte && targetImage.getType() == BufferedImage.TYPE_4BYTE_ABGR) {
+            byte[] target = ((DataBufferByte) buffer).getData();
+            for (int j = y; j < y + height; j++) {
+                tmp += metric.error(sourceRGB, j * source.getWidth() + x, target, (j - originY) * stride + x - originX, width);
+            }
+        } else {
+            int[] row = new int[width];
+            for (int j = y; j < y + height; j++) {
+                targetImage.getRGB(x - originX, j - originY, width, 1, row, 0, width);
+                tmp += metric.error(sourceRGB, j * source.getWidth() + x, row, 0, width);
+            }
+        }
+        return tmp;
+    }
+
+    /**
+     * Scores the tiles in the given row from column 'from' up to (excluding)
+     * column 'to' against an image whose top-left corner is at (originX,
+     * originY) of the canvas.
+     */
+    private static long scoreTiles(SourceBuffer source, BufferedImage targetImage, int originX, int originY, TileFitness tiles, int row,
+                    int from, int to, FitnessMetric metric) {
+        int size = tiles.getTileSize();
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int y = row * size;
+        long sum = 0;
+        for (int column = from; column < to; column++) {
+            int x = column * size;
+            long error = error(source, targetImage, originX, originY, x, y, Math.min(size, width - x), Math.min(size, height - y), metric);
+            tiles.setError(row * tiles.getColumns() + column, error);
+            sum += error;
+        }
+        return sum;
+    }
+
+    /**
+     * The tile rows in the order they are scored: every INTERLEAVE-th row
+     * first, then the ones in between, so that the running total soon
+     * reflects the whole image and a bad solution is caught early. Worked
+     * out once per number of rows; the array must not be changed.
+     */
+    private static int[] interleave(int rows) {
+        int[] order = orders.get(rows);
+        if (order == null) {
+            order = new int[rows];
+            int k = 0;
+            for (int start = 0; start < INTERLEAVE; start++) {
+                for (int row = start; row < rows; row += INTERLEAVE) {
+                    order[k++] = row;
+                }
+            }
+            orders.put(rows, order);
+        }
+        return order;
     }
 
-    public static Future<Long> submitNewFitnessTask(final BufferedImage sourceImage, final Future<BufferedImage> target) {
-        final int width = sourceImage.getWidth();
-        final int height = sourceImage.getHeight();
-        Future<Long> result = service.submit(new Callable<Long>() {
+    /**
+     * The calling thread's spare buckets, filled with the genome's polygons.
+     * Hand them back with releaseBuckets() once the evaluation is done (if it
+     * fails, they are simply left to the garbage collector).
+     */
+    private static PolygonBuckets acquireBuckets(int[] xs, int[] ys, int vertexCount, int[] argb, int bandHeight, int height) {
+        PolygonBuckets spare = buckets.get().poll();
+        if (spare == null) {
+            spare = new PolygonBuckets();
+        }
+        spare.reset(xs, ys, vertexCount, argb, argb.length, bandHeight, height);
+        return spare;
+    }
+
+    private static void releaseBuckets(PolygonBuckets spare) {
+        buckets.get().push(spare);
+    }
+
+    /**
+     * Sets the total of the tiles once all the rows are done, or marks them
+     * cut off if the running total went past the cutoff.
+     */
+    private static TileFitness finish(TileFitness tiles, AtomicLong running, long cutoff) {
+        if (running.get() > cutoff) {
+            tiles.cutOff(running.get());
+        } else {
+            tiles.updateTotal();
+        }
+        return tiles;
+    }
+
+    /**
+     * Runs the evaluation on the fitness pool, telling the listener (if any)
+     * as soon as it is done.
+     */
+    private static Future<TileFitness> submit(Callable<TileFitness> evaluation, final FitnessListener listener) {
+        FutureTask<TileFitness> result = new FutureTask<TileFitness>(evaluation) {
             @Override
-            public Long call() throws Exception {
-                long tmp = 0;
-                BufferedImage targetImage = target.get();
-                for (int y = 0; y < height; y++) {
-                    for (int x = 0; x < width; x++) {
-                        int p1 = sourceImage.getRGB(x, y);
-                        int p2 = targetImage.getRGB(x, y);
-                        long diff = rgb(p1, p2);
-                        tmp = tmp + diff;
-                    }
+            protected void done() {
+                if (listener != null) {
+                    listener.fitnessCalculated(this);
                 }
-                return tmp;
             }
-        });
+        };
+        MetricsHelper.evaluated();
+        ExecutorHelper.getPool().execute(result);
         return result;
     }
 
-    public static long waitForFitness(Future<Long> future) {
+    /**
+     * Renders the solution and scores it in one task, a tile row at a time:
+     * each row is rendered into the thread's scratch image (see
+     * RenderImageHelper.renderScratch()) from only the polygons that touch
+     * it (see PolygonBuckets) and scored while still in the cache. The memory
+     * an evaluation needs therefore depends on the width of the image and the
+     * tile size, not on its height. The rows are shared out over several
+     * threads when the evaluation is split.
+     * 
+     * With a cutoff other than NO_CUTOFF, the rows are scored in interleaved
+     * order, and the evaluation stops as soon as the running total exceeds
+     * the cutoff (see TileFitness.isCutOff()).
+     */
+    public static Future<TileFitness> submitEvaluationTask(final SourceBuffer source, final int[] xs, final int[] ys,
+                    final int vertexCount, final int[] argb, final Renderer renderer, final int samples, final int tileSize,
+                    final FitnessMetric metric, final long cutoff, FitnessListener listener) {
+        return submit(new Callable<TileFitness>() {
+            @Override
+            public TileFitness call() throws Exception {
+                final TileFitness tiles = new TileFitness(source.getWidth(), source.getHeight(), tileSize);
+                final PolygonBuckets polygons = acquireBuckets(xs, ys, vertexCount, argb, tileSize, source.getHeight());
+                final int[] order = cutoff == NO_CUTOFF ? null : interleave(tiles.getRows());
+                final AtomicLong running = new AtomicLong();
+                new RowSplitter(new Rows() {
+                    @Override
+                    public void evaluate(int from, int to) {
+                        for (int k = from; k < to && running.get() <= cutoff; k++) {
+                            int row = order == null ? k : order[k];
+                            int y = row * tileSize;
+                            long start = System.nanoTime();
+                            BufferedImage strip = RenderImageHelper.renderScratch(xs, ys, vertexCount, argb, polygons, row, 0, y,
+                                            source.getWidth(), Math.min(tileSize, source.getHeight() - y), renderer, samples);
+                            start = MetricsHelper.record(Phase.RENDER, start);
+                            running.addAndGet(scoreTiles(source, strip, 0, y, tiles, row, 0, tiles.getColumns(), metric));
+                            MetricsHelper.record(Phase.SCORE, start);
+                        }
+                    }
+                }, 0, tiles.getRows()).invoke();
+                releaseBuckets(polygons);
+                return finish(tiles, running, cutoff);
+            }
+        }, listener);
+    }
+
+    /**
+     * Scores an offspring by re-rendering and re-scoring only the dirty tiles,
+     * i.e. those touched by polygons that differ from the parent. The error of
+     * every other tile is taken from the parent. With Java2D, rows with dirty
+     * tiles are rendered whole, as only then do they match a full evaluation
+     * pixel for pixel.
+     * 
+     * With a cutoff, the clean tiles are counted first and the dirty rows
+     * are then scored in interleaved order, stopping as soon as the running
+     * total exceeds the cutoff.
+     */
+    public static Future<TileFitness> submitIncrementalFitnessTask(final SourceBuffer source, final int[] xs, final int[] ys,
+                    final int vertexCount, final int[] argb, final Renderer renderer, final int samples, final FitnessMetric metric,
+                    final Future<TileFitness> parent, final boolean[] dirty, final long cutoff, FitnessListener listener) {
+        return submit(new Callable<TileFitness>() {
+            @Override
+            public TileFitness call() throws Exception {
+                final TileFitness parentTiles = parent.get();
+                if (parentTiles.isCutOff()) {
+                    // Its tiles are incomplete, so score everything.
+                    Arrays.fill(dirty, true);
+                }
+                final int size = parentTiles.getTileSize();
+                final int width = source.getWidth();
+                final int height = source.getHeight();
+                final TileFitness tiles = new TileFitness(width, height, size);
+                final PolygonBuckets polygons = acquireBuckets(xs, ys, vertexCount, argb, size, height);
+                final int columns = tiles.getColumns();
+                final AtomicLong running = new AtomicLong();
+                long clean = 0;
+                for (int tile = 0; tile < dirty.length; tile++) {
+                    if (!dirty[tile]) {
+                        tiles.setError(tile, parentTiles.getError(tile));
+                        clean += parentTiles.getError(tile);
+                    }
+                }
+                running.set(clean);
+                final int[] order = cutoff == NO_CUTOFF ? null : interleave(tiles.getRows());
+                new RowSplitter(new Rows() {
+                    @Override
+                    public void evaluate(int from, int to) {
+                        for (int k = from; k < to && running.get() <= cutoff; k++) {
+                            int row = order == null ? k : order[k];
+                            int column = 0;
+                            BufferedImage wholeRow = null;
+                            while (column < columns) {
+                                if (!dirty[row * columns + column]) {
+                                    column++;
+                                    continue;
+                                }
+                                // Render the whole run of dirty tiles in one go.
+                                int end = column;
+                                while (end < columns && dirty[row * columns + end]) {
+                                    end++;
+                                }
+                                int x = column * size;
+                                int y = row * size;
+                                long start = System.nanoTime();
+                                BufferedImage strip;
+                                int originX = x;
+                                if (renderer == Renderer.JAVA2D) {
+                                    // Java2D rasterises an edge slightly differently depending on
+                                    // where the image starts, so draw the row just as a full
+                                    // evaluation does (once) and score the run from that.
+                                    if (wholeRow == null) {
+                                        wholeRow = RenderImageHelper.renderScratch(xs, ys, vertexCount, argb, polygons, row, 0, y, width,
+                                                        Math.min(size, height - y), renderer, samples);
+                                    }
+                                    strip = wholeRow;
+                                    originX = 0;
+                                } else {
+                                    strip = RenderImageHelper.renderScratch(xs, ys, vertexCount, argb, polygons, row, x, y,
+                                                    Math.min(end * size, width) - x, Math.min(size, height - y), renderer, samples);
+                                }
+                                start = MetricsHelper.record(Phase.RENDER, start);
+                                running.addAndGet(scoreTiles(source, strip, originX, y, tiles, row, column, end, metric));
+                                MetricsHelper.record(Phase.SCORE, start);
+                                column = end;
+                            }
+                        }
+                    }
+                }, 0, tiles.getRows()).invoke();
+                releaseBuckets(polygons);
+                return finish(tiles, running, cutoff);
+            }
+        }, listener);
+    }
+
+    public static TileFitness waitForFitness(Future<TileFitness> future) {
         try {
             return future.get();
         } catch (InterruptedException e) {
@@ -0,0 +1,19 @@
+package gj.ea.art.helpers;
+
+import java.util.concurrent.Future;
+
+/**
+ * Told when an evaluation submitted to FitnessHelper has finished.
+ * 
+ * @author jaco
+ *
+ */
+public interface FitnessListener {
+
+    /**
+     * Called on the evaluating thread once the fitness is done (or failed),
+     * so fitness.get() will not block. Keep it short.
+     */
+    public void fitnessCalculated(Future<TileFitness> fitness);
+
+}
@@ -0,0 +1,145 @@
+package gj.ea.art.helpers;
+
+/**
+ * The per-pixel error measures available to the fitness function. Each works
+ * on a run of pixels, comparing the packed RGB source against the rendered
+ * pixels, either as packed ints (TYPE_INT_ARGB) or as the bytes of a
+ * TYPE_4BYTE_ABGR raster.
+ *
+ * Every metric has its own copy of the loops rather than a shared loop
+ * calling a per-pixel method: that way each loop stays monomorphic and only
+ * does integer arithmetic (bar the square root of the Euclidean metric),
+ * which the JIT can keep tight. The int[] loops, which score the scanline
+ * renderer's output, are also unrolled by four; the byte[] ones are not.
+ *
+ * @author jaco
+ *
+ */
+public enum FitnessMetric {
+
+    /**
+     * The Euclidean distance in RGB space, truncated to a whole number (the
+     * original measure).
+     */
+    EUCLIDEAN {
+        @Override
+        public long error(int[] source, int sourceOffset, int[] target, int targetOffset, int count) {
+            long sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+            int i = 0;
+            for (; i + 3 < count; i += 4) {
+                sum0 += (long) Math.sqrt(squared(source[sourceOffset + i], target[targetOffset + i]));
+                sum1 += (long) Math.sqrt(squared(source[sourceOffset + i + 1], target[targetOffset + i + 1]));
+                sum2 += (long) Math.sqrt(squared(source[sourceOffset + i + 2], target[targetOffset + i + 2]));
+                sum3 += (long) Math.sqrt(squared(source[sourceOffset + i + 3], target[targetOffset + i + 3]));
+            }
+            for (; i < count; i++) {
+                sum0 += (long) Math.sqrt(squared(source[sourceOffset + i], target[targetOffset + i]));
+            }
+            return sum0 + sum1 + sum2 + sum3;
+        }
+
+        @Override
+        public long error(int[] source, int sourceOffset, byte[] abgr, int targetOffset, int count) {
+            long sum = 0;
+            for (int i = 0, t = targetOffset * 4; i < count; i++, t += 4) {
+                sum += (long) Math.sqrt(squared(source[sourceOffset + i], abgr, t));
+            }
+            return sum;
+        }
+    },
+
+    /**
+     * The squared Euclidean distance; no square root, and punishes large
+     * errors more.
+     */
+    SQUARED {
+        @Override
+        public long error(int[] source, int sourceOffset, int[] target, int targetOffset, int count) {
+            long sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+            int i = 0;
+            for (; i + 3 < count; i += 4) {
+                sum0 += squared(source[sourceOffset + i], target[targetOffset + i]);
+                sum1 += squared(source[sourceOffset + i + 1], target[targetOffset + i + 1]);
+                sum2 += squared(source[sourceOffset + i + 2], target[targetOffset + i + 2]);
+                sum3 += squared(source[sourceOffset + i + 3], target[targetOffset + i + 3]);
+            }
+            for (; i < count; i++) {
+                sum0 += squared(source[sourceOffset + i], target[targetOffset + i]);
+            }
+            return sum0 + sum1 + sum2 + sum3;
+        }
+
+        @Override
+        public long error(int[] source, int sourceOffset, byte[] abgr, int targetOffset, int count) {
+            long sum = 0;
+            for (int i = 0, t = targetOffset * 4; i < count; i++, t += 4) {
+                sum += squared(source[sourceOffset + i], abgr, t);
+            }
+            return sum;
+        }
+    },
+
+    /**
+     * The sum of the absolute channel differences (Manhattan distance).
+     */
+    ABSOLUTE {
+        @Override
+        public long error(int[] source, int sourceOffset, int[] target, int targetOffset, int count) {
+            long sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+            int i = 0;
+            for (; i + 3 < count; i += 4) {
+                sum0 += absolute(source[sourceOffset + i], target[targetOffset + i]);
+                sum1 += absolute(source[sourceOffset + i + 1], target[targetOffset + i + 1]);
+                sum2 += absolute(source[sourceOffset + i + 2], target[targetOffset + i + 2]);
+                sum3 += absolute(source[sourceOffset + i + 3], target[targetOffset + i + 3]);
+            }
+            for (; i < count; i++) {
+                sum0 += absolute(source[sourceOffset + i], target[targetOffset + i]);
+            }
+            return sum0 + sum1 + sum2 + sum3;
+        }
+
+        @Override
+        public long error(int[] source, int sourceOffset, byte[] abgr, int targetOffset, int count) {
+            long sum = 0;
+            for (int i = 0, t = targetOffset * 4; i < count; i++, t += 4) {
+                int s = source[sourceOffset + i];
+                sum += Math.abs(((s >> 16) & 0xff) - (abgr[t + 3] & 0xff)) + Math.abs(((s >> 8) & 0xff) - (abgr[t + 2] & 0xff))
+                                + Math.abs((s & 0xff) - (abgr[t + 1] & 0xff));
+            }
+            return sum;
+        }
+    };
+
+    /**
+     * The summed error of count pixels of the source (packed RGB) against
+     * packed RGB target pixels.
+     */
+    public abstract long error(int[] source, int sourceOffset, int[] target, int targetOffset, int count);
+
+    /**
+     * The summed error of count pixels of the source (packed RGB) against the
+     * pixels of a 4BYTE_ABGR raster, starting at pixel targetOffset.
+     */
+    public abstract long error(int[] source, int sourceOffset, byte[] abgr, int targetOffset, int count);
+
+    private static int squared(int source, int target) {
+        int dr = ((source >> 16) & 0xff) - ((target >> 16) & 0xff);
+        int dg = ((source >> 8) & 0xff) - ((target >> 8) & 0xff);
+        int db = (source & 0xff) - (target & 0xff);
+        return dr * dr + dg * dg + db * db;
+    }
+
+    private static int squared(int source, byte[] abgr, int t) {
+        int dr = ((source >> 16) & 0xff) - (abgr[t + 3] & 0xff);
+        int dg = ((source >> 8) & 0xff) - (abgr[t + 2] & 0xff);
+        int db = (source & 0xff) - (abgr[t + 1] & 0xff);
+        return dr * dr + dg * dg + db * db;
+    }
+
+    private static int absolute(int source, int target) {
+        return Math.abs(((source >> 16) & 0xff) - ((target >> 16) & 0xff)) + Math.abs(((source >> 8) & 0xff) - ((target >> 8) & 0xff))
+                        + Math.abs((source & 0xff) - (target & 0xff));
+    }
+
+}
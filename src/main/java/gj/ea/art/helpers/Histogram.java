@@ -0,0 +1,102 @@
+package gj.ea.art.helpers;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of durations in nanoseconds. Each power of two is
+ * split into four buckets, so recording costs a few atomic adds and the
+ * percentiles are accurate to within 25%.
+ * 
+ * @author jaco
+ *
+ */
+public final class Histogram {
+
+    private static final int SUB_BUCKETS = 4; // per power of two
+
+    private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(bucket(nanos));
+        count.increment();
+        total.add(nanos);
+        long current = max.get();
+        while (nanos > current && !max.compareAndSet(current, nanos)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Values below SUB_BUCKETS have a bucket each; above that the bucket is
+     * the power of two and the two bits below the highest.
+     */
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int power = 63 - Long.numberOfLeadingZeros(value);
+        return power * SUB_BUCKETS + (int) ((value >>> (power - 2)) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * The largest value that falls in the bucket.
+     */
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int power = bucket / SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + 1 + bucket % SUB_BUCKETS) << (power - 2)) - 1;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotal() {
+        return total.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : total.sum() / n;
+    }
+
+    /**
+     * The value below which the given fraction (0 to 1) of the recorded
+     * values fall, or 0 when nothing was recorded.
+     */
+    public long getPercentile(double fraction) {
+        long target = (long) Math.ceil(fraction * count.sum());
+        long seen = 0;
+        for (int bucket = 0; bucket < buckets.length(); bucket++) {
+            seen += buckets.get(bucket);
+            if (seen >= target && seen > 0) {
+                return Math.min(upperBound(bucket), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int bucket = 0; bucket < buckets.length(); bucket++) {
+            buckets.set(bucket, 0);
+        }
+        count.reset();
+        total.reset();
+        max.set(0);
+    }
+
+}
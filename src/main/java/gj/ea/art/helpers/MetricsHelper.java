@@ -0,0 +1,374 @@
+package gj.ea.art.helpers;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+import com.google.gson.Gson;
+
+/**
+ * Counts generations, evaluations and improvements and times the phases of
+ * the evolution in histograms (see Phase). The metrics are exposed through
+ * JMX (see MetricsMXBean) and, with the "metricsFile" property set, appended
+ * to that file every "metricsSeconds" seconds (default 10): as JSON, one
+ * object per line, if the name ends in .json, otherwise as CSV.
+ *
+ * Recording is meant to stay on in production: a phase costs two calls to
+ * System.nanoTime() and a few atomic adds. The bytes allocated (summed over
+ * all live threads, where the JVM supports it) are only looked up when the
+ * metrics are read.
+ *
+ * @author jaco
+ *
+ */
+public final class MetricsHelper {
+
+    private static final Logger logger = Logger.getLogger(MetricsHelper.class);
+
+    private static final String OBJECT_NAME = "gj.ea.art:type=Metrics";
+
+    /**
+     * The timed phases. GENERATION, BREED, EVALUATE (the wait for the
+     * offspring's fitness, selecting the survivors as they come in) and SORT
+     * (what is left of the selection after that) are wall-clock times per
+     * generation; RENDER and SCORE are timed per strip of tiles on whichever
+     * thread does the work, so they add up over all threads; CHECKPOINT is
+     * the time to write a state.
+     */
+    public enum Phase {
+        GENERATION, BREED, EVALUATE, RENDER, SCORE, SORT, CHECKPOINT
+    }
+
+    private static final Histogram[] histograms = new Histogram[Phase.values().length];
+    private static final LongAdder generations = new LongAdder();
+    private static final LongAdder evaluations = new LongAdder();
+    private static final LongAdder improvements = new LongAdder();
+    private static volatile long since = System.nanoTime();
+    private static volatile long allocatedSince = getThreadAllocatedBytes();
+
+    private static final ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "metrics-writer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private static ScheduledFuture<?> dump;
+    private static volatile String metricsFile = "";
+    private static boolean registered;
+
+    static {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new Histogram();
+        }
+        // Write the final figures when the JVM exits.
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeMetrics();
+            }
+        }));
+    }
+
+    private MetricsHelper() {
+    }
+
+    /**
+     * The MXBean, a view on the static metrics.
+     */
+    private static final class Metrics implements MetricsMXBean {
+
+        @Override
+        public long getGenerations() {
+            return generations.sum();
+        }
+
+        @Override
+        public long getEvaluations() {
+            return evaluations.sum();
+        }
+
+        @Override
+        public long getImprovements() {
+            return improvements.sum();
+        }
+
+        @Override
+        public double getGenerationsPerSecond() {
+            return generations.sum() / getSeconds();
+        }
+
+        @Override
+        public double getEvaluationsPerSecond() {
+            return evaluations.sum() / getSeconds();
+        }
+
+        @Override
+        public double getImprovementsPerMinute() {
+            return improvements.sum() * 60 / getSeconds();
+        }
+
+        @Override
+        public long getQueuedTasks() {
+            return ExecutorHelper.getPool().getQueuedTaskCount();
+        }
+
+        @Override
+        public int getQueuedSubmissions() {
+            return ExecutorHelper.getPool().getQueuedSubmissionCount();
+        }
+
+        @Override
+        public int getActiveThreads() {
+            return ExecutorHelper.getPool().getActiveThreadCount();
+        }
+
+        @Override
+        public long getCacheHits() {
+            return FitnessCacheHelper.getHits();
+        }
+
+        @Override
+        public long getCacheMisses() {
+            return FitnessCacheHelper.getMisses();
+        }
+
+        @Override
+        public long getAllocatedBytes() {
+            long allocated = getThreadAllocatedBytes();
+            return allocated < 0 ? -1 : allocated - allocatedSince;
+        }
+
+        @Override
+        public long getAllocatedBytesPerGeneration() {
+            long allocated = getAllocatedBytes();
+            return allocated < 0 ? -1 : allocated / Math.max(generations.sum(), 1);
+        }
+
+        @Override
+        public PhaseStatistics[] getPhases() {
+            PhaseStatistics[] phases = new PhaseStatistics[histograms.length];
+            for (Phase phase : Phase.values()) {
+                phases[phase.ordinal()] = new PhaseStatistics(phase.name().toLowerCase(), histograms[phase.ordinal()]);
+            }
+            return phases;
+        }
+
+        @Override
+        public void reset() {
+            MetricsHelper.reset();
+        }
+    }
+
+    /**
+     * Reads "metricsFile" (default none), "metricsSeconds" (default 10) and
+     * "metricsJmx" (default true), and registers the MXBean once.
+     */
+    public static synchronized void setParameters(Properties properties) {
+        metricsFile = properties.getProperty("metricsFile", "").trim();
+        double seconds = Double.parseDouble(properties.getProperty("metricsSeconds", "10"));
+        if (dump != null) {
+            dump.cancel(false);
+            dump = null;
+        }
+        if (metricsFile.length() > 0 && seconds > 0) {
+            long period = (long) (seconds * 1000);
+            dump = dumper.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    writeMetrics();
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+        if (!registered && Boolean.parseBoolean(properties.getProperty("metricsJmx", "true"))) {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = new ObjectName(OBJECT_NAME);
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(new Metrics(), name);
+                }
+                registered = true;
+            } catch (Exception e) {
+                logger.error("I could not register the metrics with JMX.", e);
+            }
+        }
+    }
+
+    /**
+     * Records the time since 'start' (from System.nanoTime()) against the
+     * phase, and returns the current time, ready to time the next phase.
+     */
+    public static long record(Phase phase, long start) {
+        long now = System.nanoTime();
+        histograms[phase.ordinal()].record(now - start);
+        return now;
+    }
+
+    /**
+     * Counts a generation, and whether it improved the best fitness.
+     */
+    public static void generation(boolean improved) {
+        generations.increment();
+        if (improved) {
+            improvements.increment();
+        }
+    }
+
+    /**
+     * Counts an evaluation (full, incremental or coarse) of a solution.
+     */
+    public static void evaluated() {
+        evaluations.increment();
+    }
+
+    public static void reset() {
+        for (Histogram histogram : histograms) {
+            histogram.reset();
+        }
+        generations.reset();
+        evaluations.reset();
+        improvements.reset();
+        since = System.nanoTime();
+        allocatedSince = getThreadAllocatedBytes();
+    }
+
+    /**
+     * The bytes allocated so far by the live threads, or -1 if the JVM does
+     * not count them (counts of threads that have ended are lost).
+     */
+    private static long getThreadAllocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        if (!allocations.isThreadAllocatedMemorySupported() || !allocations.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        long total = 0;
+        for (long bytes : allocations.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            total += Math.max(bytes, 0); // -1 for a thread that ended meanwhile
+        }
+        return total;
+    }
+
+    private static double getSeconds() {
+        return Math.max(System.nanoTime() - since, 1) / 1e9;
+    }
+
+    /**
+     * The metrics by name, in a fixed order: the counts and rates, the state
+     * of the evaluation pool, the cache and the heap, and then six columns
+     * per phase.
+     */
+    private static Map<String, Object> getMetrics() {
+        Metrics metrics = new Metrics();
+        Map<String, Object> values = new LinkedHashMap<String, Object>();
+        values.put("time", System.currentTimeMillis());
+        values.put("seconds", Math.round(getSeconds() * 1000) / 1000.0);
+        values.put("generations", metrics.getGenerations());
+        values.put("evaluations", metrics.getEvaluations());
+        values.put("improvements", metrics.getImprovements());
+        values.put("generationsPerSecond", Math.round(metrics.getGenerationsPerSecond() * 100) / 100.0);
+        values.put("evaluationsPerSecond", Math.round(metrics.getEvaluationsPerSecond() * 100) / 100.0);
+        values.put("improvementsPerMinute", Math.round(metrics.getImprovementsPerMinute() * 100) / 100.0);
+        ForkJoinPool pool = ExecutorHelper.getPool();
+        values.put("queuedTasks", pool.getQueuedTaskCount());
+        values.put("queuedSubmissions", pool.getQueuedSubmissionCount());
+        values.put("activeThreads", pool.getActiveThreadCount());
+        values.put("cacheHits", metrics.getCacheHits());
+        values.put("cacheMisses", metrics.getCacheMisses());
+        values.put("allocatedBytes", metrics.getAllocatedBytes());
+        values.put("allocatedBytesPerGeneration", metrics.getAllocatedBytesPerGeneration());
+        for (PhaseStatistics phase : metrics.getPhases()) {
+            values.put(phase.getName() + "Count", phase.getCount());
+            values.put(phase.getName() + "Millis", phase.getTotalMillis());
+            values.put(phase.getName() + "MeanMicros", phase.getMeanMicros());
+            values.put(phase.getName() + "P50Micros", phase.getP50Micros());
+            values.put(phase.getName() + "P99Micros", phase.getP99Micros());
+            values.put(phase.getName() + "MaxMicros", phase.getMaxMicros());
+        }
+        return values;
+    }
+
+    /**
+     * Appends the current metrics to the metrics file (if any), with a CSV
+     * header first if the file is new.
+     */
+    private static synchronized void writeMetrics() {
+        String fileName = metricsFile;
+        if (fileName.length() == 0) {
+            return;
+        }
+        Map<String, Object> values = getMetrics();
+        StringBuilder line = new StringBuilder();
+        if (fileName.endsWith(".json")) {
+            line.append(new Gson().toJson(values)).append('\n');
+        } else {
+            File file = new File(fileName);
+            if (!file.exists() || file.length() == 0) {
+                appendRow(line, values.keySet().toArray());
+            }
+            appendRow(line, values.values().toArray());
+        }
+        try {
+            Writer out = new FileWriter(fileName, true);
+            try {
+                out.write(line.toString());
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            logger.error("I could not write the metrics to '" + fileName + "'.", e);
+        }
+    }
+
+    private static void appendRow(StringBuilder line, Object[] cells) {
+        for (int i = 0; i < cells.length; i++) {
+            line.append(i == 0 ? "" : ",").append(cells[i]);
+        }
+        line.append('\n');
+    }
+
+    /**
+     * The time per generation spent in each phase, for the log.
+     */
+    public static String getSummary() {
+        long count = Math.max(generations.sum(), 1);
+        StringBuilder summary = new StringBuilder("Time per generation:");
+        for (Phase phase : Phase.values()) {
+            if (phase != Phase.CHECKPOINT) {
+                double millis = histograms[phase.ordinal()].getTotal() / 1e6 / count;
+                summary.append(' ').append(phase.name().toLowerCase()).append(' ').append(Math.round(millis * 100) / 100.0).append("ms");
+            }
+        }
+        Histogram checkpoints = histograms[Phase.CHECKPOINT.ordinal()];
+        summary.append(" (render and score summed over all threads); ").append(checkpoints.getCount()).append(" checkpoints of ")
+                        .append(Math.round(checkpoints.getMean() / 1e4) / 100.0).append("ms on average.");
+        long allocated = new Metrics().getAllocatedBytesPerGeneration();
+        if (allocated >= 0) {
+            summary.append(" Allocated per generation: ").append(Math.round(allocated / 102.4) / 10.0).append("KB.");
+        }
+        return summary.toString();
+    }
+
+}
@@ -0,0 +1,53 @@
+package gj.ea.art.helpers;
+
+/**
+ * The evolution metrics as exposed through JMX, under
+ * "gj.ea.art:type=Metrics". Rates are averaged since the start (or the last
+ * reset).
+ * 
+ * @author jaco
+ *
+ */
+public interface MetricsMXBean {
+
+    public long getGenerations();
+
+    public long getEvaluations();
+
+    public long getImprovements();
+
+    public double getGenerationsPerSecond();
+
+    public double getEvaluationsPerSecond();
+
+    public double getImprovementsPerMinute();
+
+    /**
+     * Tasks waiting in the evaluation pool's work queues.
+     */
+    public long getQueuedTasks();
+
+    /**
+     * Evaluations submitted to the pool that no thread has picked up yet.
+     */
+    public int getQueuedSubmissions();
+
+    public int getActiveThreads();
+
+    public long getCacheHits();
+
+    public long getCacheMisses();
+
+    /**
+     * Bytes allocated on the heap by all live threads, or -1 if the JVM
+     * cannot tell.
+     */
+    public long getAllocatedBytes();
+
+    public long getAllocatedBytesPerGeneration();
+
+    public PhaseStatistics[] getPhases();
+
+    public void reset();
+
+}
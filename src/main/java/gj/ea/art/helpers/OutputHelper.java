@@ -0,0 +1,212 @@
+package gj.ea.art.helpers;
+
+import gj.ea.art.ArtSolution;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.imageio.ImageIO;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Writes the progress output (PNG snapshots of the best solution and lines
+ * of CSV) on a background thread, so that rendering, encoding and disk
+ * latency do not hold up evolution.
+ *
+ * At most one snapshot waits at a time: a newer one replaces it, and at most
+ * one is written per "snapshotSeconds" (default 1). Lines are queued, up to
+ * "outputQueueSize" of them (default 10000; more are dropped), and appended
+ * in batches once a second.
+ *
+ * @author jaco
+ *
+ */
+public final class OutputHelper {
+
+    private static final Logger logger = Logger.getLogger(OutputHelper.class);
+
+    private static final long FLUSH_MILLIS = 1000;
+
+    private static final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "output-writer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * A solution to save as a PNG, under the given name.
+     */
+    private static final class Snapshot {
+
+        private final ArtSolution solution;
+        private final String fileName;
+
+        Snapshot(ArtSolution solution, String fileName) {
+            this.solution = solution;
+            this.fileName = fileName;
+        }
+    }
+
+    private static final AtomicReference<Snapshot> pendingSnapshot = new AtomicReference<Snapshot>();
+    private static final Map<String, BlockingQueue<String>> pendingLines = new ConcurrentHashMap<String, BlockingQueue<String>>();
+    private static final AtomicLong coalescedSnapshots = new AtomicLong();
+    private static final AtomicLong droppedLines = new AtomicLong();
+    private static volatile long minimumInterval = 1000; // in milliseconds
+    private static volatile int queueSize = 10000;
+    private static volatile long lastSnapshot;
+
+    static {
+        writer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                writeLines();
+            }
+        }, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+        // Write whatever is still pending when the JVM exits.
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }));
+    }
+
+    private OutputHelper() {
+    }
+
+    /**
+     * Reads "snapshotSeconds" and "outputQueueSize". The queue size applies
+     * to files that have not been written to yet.
+     */
+    public static void setParameters(Properties properties) {
+        minimumInterval = (long) (Double.parseDouble(properties.getProperty("snapshotSeconds", "1")) * 1000);
+        queueSize = Math.max(1, Integer.parseInt(properties.getProperty("outputQueueSize", "10000")));
+    }
+
+    /**
+     * Saves the solution's image as a PNG in the background. The solution
+     * must not change afterwards. If a snapshot is still waiting, this one
+     * replaces it.
+     */
+    public static void saveImageInBackground(ArtSolution solution, String fileName) {
+        if (pendingSnapshot.getAndSet(new Snapshot(solution, fileName)) != null) {
+            coalescedSnapshots.incrementAndGet();
+            return;
+        }
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Worked out here rather than when scheduling, as a snapshot
+                // may still have been being written then.
+                long delay = lastSnapshot + minimumInterval - System.currentTimeMillis();
+                if (delay > 0) {
+                    writer.schedule(this, delay, TimeUnit.MILLISECONDS);
+                } else {
+                    writeSnapshot();
+                }
+            }
+        });
+    }
+
+    /**
+     * Queues a line (without the line separator) to be appended to the file.
+     * The line is dropped if the queue is full.
+     */
+    public static void appendLine(String fileName, String line) {
+        BlockingQueue<String> lines = pendingLines.get(fileName);
+        if (lines == null) {
+            synchronized (pendingLines) {
+                lines = pendingLines.get(fileName);
+                if (lines == null) {
+                    lines = new ArrayBlockingQueue<String>(queueSize);
+                    pendingLines.put(fileName, lines);
+                }
+            }
+        }
+        if (!lines.offer(line)) {
+            droppedLines.incrementAndGet();
+        }
+    }
+
+    private static synchronized void writeSnapshot() {
+        Snapshot snapshot = pendingSnapshot.getAndSet(null);
+        if (snapshot != null) {
+            long started = System.currentTimeMillis();
+            try {
+                ImageIO.write(snapshot.solution.getDiskSolutionImage(), "png", new File(snapshot.fileName));
+                lastSnapshot = started;
+            } catch (Exception e) {
+                logger.error("The ouput PNG could not be written!", e);
+            }
+        }
+    }
+
+    /**
+     * Appends the queued lines of each file in a single write.
+     */
+    private static synchronized void writeLines() {
+        for (Map.Entry<String, BlockingQueue<String>> entry : pendingLines.entrySet()) {
+            List<String> batch = new ArrayList<String>();
+            entry.getValue().drainTo(batch);
+            if (batch.isEmpty()) {
+                continue;
+            }
+            StringBuilder text = new StringBuilder();
+            for (String line : batch) {
+                text.append(line).append('\n');
+            }
+            try {
+                Writer out = new FileWriter(entry.getKey(), true);
+                try {
+                    out.write(text.toString());
+                } finally {
+                    out.close();
+                }
+            } catch (IOException e) {
+                logger.error("I could not write to '" + entry.getKey() + "'.", e);
+            }
+        }
+    }
+
+    /**
+     * Writes the pending snapshot and lines now, on the calling thread.
+     */
+    public static void flush() {
+        writeSnapshot();
+        writeLines();
+    }
+
+    /**
+     * The number of snapshots replaced by a newer one before being written.
+     */
+    public static long getCoalescedSnapshots() {
+        return coalescedSnapshots.get();
+    }
+
+    /**
+     * The number of lines dropped because the queue was full.
+     */
+    public static long getDroppedLines() {
+        return droppedLines.get();
+    }
+
+}
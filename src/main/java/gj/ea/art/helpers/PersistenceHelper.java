@@ -1,14 +1,36 @@
 package gj.ea.art.helpers;
 
+import gj.ea.art.BinaryState;
 import gj.ea.art.EvolutionaryAlgorithm;
 
 import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import javax.imageio.ImageIO;
 
@@ -17,11 +39,60 @@ import org.apache.log4j.Logger;
 public final class PersistenceHelper {
 
     private static final Logger logger = Logger.getLogger(PersistenceHelper.class);
+
+    // Background checkpoints: the latest snapshot waiting to be written, by
+    // file name, and a single daemon thread to write them.
+    private static final Map<String, EvolutionaryAlgorithm> pending = new ConcurrentHashMap<String, EvolutionaryAlgorithm>();
+    private static final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "checkpoint-writer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private static volatile long minimumInterval = 10000; // in milliseconds
+    private static volatile boolean deflate = true;
+    private static volatile long lastWrite;
+
+    // Decoded and scaled source images, by file name and width.
+    private static final Map<String, SourceBuffer> sources = new HashMap<String, SourceBuffer>();
+
+    static {
+        // Write whatever is still pending when the JVM exits.
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flushStates();
+            }
+        }));
+    }
     
     private PersistenceHelper() {}
+
+    // The binary state format: "GAPS", the format version and the flags,
+    // followed by the algorithm's class name and its own state (see
+    // BinaryState), deflated if FLAG_DEFLATE is set.
+    private static final int MAGIC = 0x47415053;
+    private static final int FORMAT_VERSION = 1;
+    private static final int FLAG_DEFLATE = 1;
+
+    // The first two bytes of a Java serialisation stream.
+    private static final int SERIALIZATION_MAGIC = 0xACED;
+
+    /**
+     * Reads "checkpointSeconds", the minimum time between background
+     * checkpoints (default 10), and "checkpointDeflate", whether to compress
+     * binary states (default true).
+     */
+    public static void setParameters(Properties properties) {
+        minimumInterval = (long) (Double.parseDouble(properties.getProperty("checkpointSeconds", "10")) * 1000);
+        deflate = Boolean.parseBoolean(properties.getProperty("checkpointDeflate", "true"));
+    }
     
     /**
-     * Loads an image from disk.
+     * Loads an image from disk, scaled to the given width (keeping the aspect
+     * ratio), or at its own size if the width is 0.
      * 
      * @param fileName
      * @param width
@@ -30,6 +101,9 @@ public final class PersistenceHelper {
     public static BufferedImage getImage(String fileName, int width) {
         try {
             BufferedImage tmp = ImageIO.read(new File(fileName));
+            if (width <= 0) {
+                width = tmp.getWidth();
+            }
             double ratio = tmp.getWidth() / (double) width;
             int height = (int) Math.ceil(tmp.getHeight() / ratio);
             BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
@@ -40,27 +114,203 @@ public final class PersistenceHelper {
         }
     }
     
-    public static void saveState(EvolutionaryAlgorithm ea, String filename) {
+    /**
+     * The pixels of the image scaled to the given width, decoded only once per
+     * file and width and then shared: resuming a population decodes its
+     * source image once, not once per solution.
+     * 
+     * @param fileName
+     * @param width
+     * @return
+     */
+    public static SourceBuffer getSourceBuffer(String fileName, int width) {
+        String key = new File(fileName).getAbsolutePath() + "@" + width;
+        synchronized (sources) {
+            SourceBuffer source = sources.get(key);
+            if (source == null) {
+                source = new SourceBuffer(getImage(fileName, width));
+                sources.put(key, source);
+            }
+            return source;
+        }
+    }
+
+    /**
+     * Writes the state to a temporary file first and then renames it over
+     * the old one, so a crash never leaves a truncated state behind.
+     * Algorithms that implement BinaryState are saved in the binary format,
+     * others are serialised.
+     */
+    public static synchronized void saveState(EvolutionaryAlgorithm ea, String filename) {
+        long start = System.nanoTime();
+        File tmp = new File(filename + ".tmp");
         try {
-            ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(filename));
-            out.writeObject(ea);
-            out.close();
+            try (FileOutputStream file = new FileOutputStream(tmp)) {
+                if (ea instanceof BinaryState) {
+                    DataOutputStream header = new DataOutputStream(file);
+                    header.writeInt(MAGIC);
+                    header.writeInt(FORMAT_VERSION);
+                    header.writeByte(deflate ? FLAG_DEFLATE : 0);
+                    Deflater deflater = deflate ? new Deflater(Deflater.BEST_SPEED) : null;
+                    try {
+                        OutputStream body = deflate ? new DeflaterOutputStream(file, deflater, 1 << 16) : file;
+                        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(body, 1 << 16));
+                        out.writeUTF(ea.getClass().getName());
+                        ((BinaryState) ea).writeState(out);
+                        out.flush();
+                        if (deflater != null) {
+                            ((DeflaterOutputStream) body).finish();
+                        }
+                    } finally {
+                        if (deflater != null) {
+                            deflater.end();
+                        }
+                    }
+                } else {
+                    ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(file));
+                    out.writeObject(ea);
+                    out.flush();
+                }
+                file.getFD().sync();
+            }
+            Files.move(tmp.toPath(), new File(filename).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            MetricsHelper.record(MetricsHelper.Phase.CHECKPOINT, start);
         } catch (Exception e) {
+            tmp.delete();
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * Hands a snapshot of the state to the background writer and returns
+     * immediately. The snapshot must not change afterwards. Snapshots that
+     * arrive while one is waiting replace it, and at most one is written per
+     * checkpoint interval.
+     */
+    public static void saveStateInBackground(EvolutionaryAlgorithm snapshot, final String filename) {
+        if (pending.put(filename, snapshot) == null) {
+            writer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // Worked out here rather than when scheduling, as a write
+                    // may still have been under way then.
+                    long delay = lastWrite + minimumInterval - System.currentTimeMillis();
+                    if (delay > 0) {
+                        writer.schedule(this, delay, TimeUnit.MILLISECONDS);
+                    } else {
+                        writePending(filename);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes the pending snapshot, if any. Only a successful write counts
+     * towards the checkpoint interval, so after a failure the next snapshot
+     * is tried straight away.
+     */
+    private static void writePending(String filename) {
+        EvolutionaryAlgorithm snapshot = pending.remove(filename);
+        if (snapshot != null) {
+            long started = System.currentTimeMillis();
+            try {
+                saveState(snapshot, filename);
+                lastWrite = started;
+            } catch (RuntimeException e) {
+                logger.error("I could not write the '" + filename + "' file.", e);
+            }
+        }
+    }
+
+    /**
+     * Writes all pending snapshots now, on the calling thread.
+     */
+    public static void flushStates() {
+        for (String filename : pending.keySet()) {
+            writePending(filename);
+        }
+    }
     
+    /**
+     * Reads a state in the binary format (see saveState()).
+     */
+    private static EvolutionaryAlgorithm readBinaryState(InputStream stream) throws Exception {
+        DataInputStream header = new DataInputStream(stream);
+        if (header.readInt() != MAGIC) {
+            throw new IOException("Not a state file.");
+        }
+        int version = header.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported state format version " + version + ".");
+        }
+        int flags = header.readByte();
+        Inflater inflater = (flags & FLAG_DEFLATE) != 0 ? new Inflater() : null;
+        try {
+            DataInputStream in = inflater != null ? new DataInputStream(new BufferedInputStream(new InflaterInputStream(stream, inflater,
+                            1 << 16), 1 << 16)) : header;
+            EvolutionaryAlgorithm ea = (EvolutionaryAlgorithm) Class.forName(in.readUTF()).getDeclaredConstructor().newInstance();
+            ((BinaryState) ea).readState(in);
+            return ea;
+        } finally {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * Loads a state in either format, or returns null if it cannot be read.
+     * A serialised state of an algorithm that supports the binary format is
+     * converted on the spot: it is rewritten in the binary format and the
+     * original kept as filename.ser.
+     */
     public static EvolutionaryAlgorithm loadState(String filename) {
+        return loadState(filename, true);
+    }
+
+    /**
+     * Loads a state in either format, or returns null if it cannot be read.
+     * Only converts a serialised state (see loadState(String)) if 'migrate'
+     * is set; otherwise the file is left as it is.
+     */
+    public static EvolutionaryAlgorithm loadState(String filename, boolean migrate) {
         try {
-            ObjectInputStream in = new ObjectInputStream(new FileInputStream(filename));
-            EvolutionaryAlgorithm ea = (EvolutionaryAlgorithm) in.readObject();
-            in.close();
+            EvolutionaryAlgorithm ea;
+            InputStream in = new BufferedInputStream(Channels.newInputStream(FileChannel.open(new File(filename).toPath())), 1 << 16);
+            in.mark(2);
+            boolean serialized = ((in.read() << 8) | in.read()) == SERIALIZATION_MAGIC;
+            in.reset();
+            try {
+                ea = serialized ? (EvolutionaryAlgorithm) new ObjectInputStream(in).readObject() : readBinaryState(in);
+            } finally {
+                in.close();
+            }
+            if (migrate && serialized && ea instanceof BinaryState) {
+                migrate(ea, filename);
+            }
             return ea;
         } catch (Exception e) {
-            logger.debug("I could not load the old 'eastate' file.  Sorry, the algorithm has to \n" +
-            		"restart.  Delete the " + filename + " file and try again.");
+            logger.warn("I could not load the old '" + filename + "' file.  Sorry, the algorithm has to \n" +
+            		"restart.  Delete the " + filename + " file and try again.", e);
         }
         return null;
     }
+
+    /**
+     * Rewrites a serialised state in the binary format, keeping the original
+     * as filename.ser. A failure (a read-only directory, a full disk) is only
+     * logged: the state has been read, and the next checkpoint writes it in
+     * the binary format anyway.
+     */
+    private static void migrate(EvolutionaryAlgorithm ea, String filename) {
+        try {
+            Files.copy(new File(filename).toPath(), new File(filename + ".ser").toPath(), StandardCopyOption.REPLACE_EXISTING);
+            saveState(ea, filename);
+            logger.debug("I converted '" + filename + "' to the binary format (the original is in " + filename + ".ser).");
+        } catch (Exception e) {
+            logger.warn("I could not convert '" + filename + "' to the binary format, carrying on with the state as read.", e);
+        }
+    }
     
 }
@@ -0,0 +1,57 @@
+package gj.ea.art.helpers;
+
+/**
+ * The time spent in one phase of the evolution, as reported through JMX.
+ * 
+ * @author jaco
+ *
+ */
+public class PhaseStatistics {
+
+    private final String name;
+    private final long count;
+    private final long totalMillis;
+    private final long meanMicros;
+    private final long p50Micros;
+    private final long p99Micros;
+    private final long maxMicros;
+
+    PhaseStatistics(String name, Histogram histogram) {
+        this.name = name;
+        this.count = histogram.getCount();
+        this.totalMillis = histogram.getTotal() / 1000000;
+        this.meanMicros = histogram.getMean() / 1000;
+        this.p50Micros = histogram.getPercentile(0.5) / 1000;
+        this.p99Micros = histogram.getPercentile(0.99) / 1000;
+        this.maxMicros = histogram.getMax() / 1000;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    public long getMeanMicros() {
+        return meanMicros;
+    }
+
+    public long getP50Micros() {
+        return p50Micros;
+    }
+
+    public long getP99Micros() {
+        return p99Micros;
+    }
+
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+}
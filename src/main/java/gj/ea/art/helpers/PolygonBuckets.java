@@ -0,0 +1,97 @@
+package gj.ea.art.helpers;
+
+import java.util.Arrays;
+
+/**
+ * The polygons of a genome sorted into bands of rows (the rows of fitness
+ * tiles, say) by their bounding boxes, grown for anti-aliasing, so that a
+ * band can be rendered from only the polygons that may touch it, still in
+ * their original order. Dormant (fully transparent) polygons are left out.
+ * 
+ * @author jaco
+ *
+ */
+public final class PolygonBuckets {
+
+    private int[] starts = new int[0]; // band b holds polygons[starts[b]] up to polygons[starts[b + 1]]
+    private int[] polygons = new int[0];
+    private int[] next = new int[0];
+
+    /**
+     * Sorts the given genome's polygons into the buckets, replacing whatever
+     * was in them. The arrays only grow, so buckets reused for genomes of
+     * much the same size stop allocating.
+     */
+    public void reset(int[] xs, int[] ys, int vertexCount, int[] argb, int numberOfPolygons, int bandHeight, int height) {
+        int bands = (height + bandHeight - 1) / bandHeight;
+        if (starts.length < bands + 1) {
+            starts = new int[bands + 1];
+            next = new int[bands];
+        } else {
+            Arrays.fill(starts, 0, bands + 1, 0);
+        }
+        // Count the polygons per band, then place them.
+        for (int i = 0; i < numberOfPolygons; i++) {
+            if (argb[i] >>> 24 != 0) {
+                int last = lastBand(ys, i * vertexCount, vertexCount, bandHeight, bands);
+                for (int band = firstBand(ys, i * vertexCount, vertexCount, bandHeight); band <= last; band++) {
+                    starts[band + 1]++;
+                }
+            }
+        }
+        for (int band = 0; band < bands; band++) {
+            starts[band + 1] += starts[band];
+        }
+        if (polygons.length < starts[bands]) {
+            polygons = new int[starts[bands]];
+        }
+        System.arraycopy(starts, 0, next, 0, bands);
+        for (int i = 0; i < numberOfPolygons; i++) {
+            if (argb[i] >>> 24 != 0) {
+                int last = lastBand(ys, i * vertexCount, vertexCount, bandHeight, bands);
+                for (int band = firstBand(ys, i * vertexCount, vertexCount, bandHeight); band <= last; band++) {
+                    polygons[next[band]++] = i;
+                }
+            }
+        }
+    }
+
+    private static int firstBand(int[] ys, int offset, int n, int bandHeight) {
+        int minY = Integer.MAX_VALUE;
+        for (int j = offset; j < offset + n; j++) {
+            minY = Math.min(minY, ys[j]);
+        }
+        return Math.max(0, Math.floorDiv(minY - RenderImageHelper.AA_MARGIN, bandHeight));
+    }
+
+    private static int lastBand(int[] ys, int offset, int n, int bandHeight, int bands) {
+        int maxY = Integer.MIN_VALUE;
+        for (int j = offset; j < offset + n; j++) {
+            maxY = Math.max(maxY, ys[j]);
+        }
+        return Math.min(bands - 1, Math.floorDiv(maxY + RenderImageHelper.AA_MARGIN, bandHeight));
+    }
+
+    /**
+     * The polygon indices, band after band. The array may be longer than the
+     * last band's end.
+     */
+    public int[] getPolygons() {
+        return polygons;
+    }
+
+    /**
+     * Where the band's polygons start in getPolygons().
+     */
+    public int getStart(int band) {
+        return starts[band];
+    }
+
+    /**
+     * Where the band's polygons end (exclusive) in getPolygons().
+     */
+    public int getEnd(int band) {
+        return starts[band + 1];
+    }
+
+}
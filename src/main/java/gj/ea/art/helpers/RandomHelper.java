@@ -0,0 +1,95 @@
+package gj.ea.art.helpers;
+
+import java.util.Properties;
+import java.util.SplittableRandom;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The source of randomness for evolution. Every thread has a generator of
+ * its own, so there is no contention between threads. Each is split off a
+ * master generator seeded by the "randomSeed" property, in the order the
+ * threads first ask for one. With the same seed and the same threads, a run
+ * is therefore replayed exactly. Without a seed (the default), one is picked
+ * from the clock and logged, so the run can still be replayed.
+ *
+ * Code that runs on whichever pool thread is free (such as an island of an
+ * IslandGA) should keep a generator of its own, from split(), and install it
+ * with setCurrent() while it runs.
+ *
+ * @author jaco
+ *
+ */
+public final class RandomHelper {
+
+    private static final Logger logger = Logger.getLogger(RandomHelper.class);
+
+    /**
+     * A thread's generator, and the seeding it was split off.
+     */
+    private static final class Stream {
+
+        private final int seeding;
+        private final SplittableRandom random;
+
+        Stream(int seeding, SplittableRandom random) {
+            this.seeding = seeding;
+            this.random = random;
+        }
+    }
+
+    private static final ThreadLocal<Stream> streams = new ThreadLocal<Stream>();
+    private static SplittableRandom master = new SplittableRandom();
+    private static volatile int seeding;
+
+    private RandomHelper() {
+    }
+
+    /**
+     * Reseeds the master generator from "randomSeed" (empty for a seed from
+     * the clock). Threads split off a fresh generator on their next use.
+     */
+    public static synchronized void setParameters(Properties properties) {
+        String value = properties.getProperty("randomSeed", "").trim();
+        long seed = value.length() == 0 ? System.nanoTime() ^ System.currentTimeMillis() : Long.parseLong(value);
+        master = new SplittableRandom(seed);
+        seeding++;
+        logger.debug("The random seed is " + seed + ".");
+    }
+
+    /**
+     * A new generator, independent of all others.
+     */
+    public static synchronized SplittableRandom split() {
+        return master.split();
+    }
+
+    /**
+     * The calling thread's generator. Hot loops should fetch it once rather
+     * than call nextDouble() on every pass.
+     */
+    public static SplittableRandom current() {
+        Stream stream = streams.get();
+        if (stream == null || stream.seeding != seeding) {
+            stream = new Stream(seeding, split());
+            streams.set(stream);
+        }
+        return stream.random;
+    }
+
+    /**
+     * Makes the given generator the calling thread's.
+     */
+    public static void setCurrent(SplittableRandom random) {
+        streams.set(new Stream(seeding, random));
+    }
+
+    /**
+     * A random number from 0 (inclusive) to 1 (exclusive), like
+     * Math.random(), from the calling thread's generator.
+     */
+    public static double nextDouble() {
+        return current().nextDouble();
+    }
+
+}
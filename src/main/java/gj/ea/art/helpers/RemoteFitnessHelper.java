@@ -0,0 +1,520 @@
+package gj.ea.art.helpers;
+
+import gj.ea.art.helpers.RenderImageHelper.Renderer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Evaluates solutions in other processes, possibly on other machines. Each
+ * worker (see WorkerMain) receives every source image once, followed by
+ * batches of packed genomes, and answers with the tile errors of each.
+ *
+ * The coordinator side is configured with "workers" (a comma separated list
+ * of host:port), "remoteBatchSize" (genomes per batch, default 8) and
+ * "remotePipelineDepth" (batches in flight per worker, default 2). A worker
+ * that fails is dropped and its outstanding genomes are resubmitted to the
+ * others; once all workers are gone, evaluation falls back to this process.
+ *
+ * The protocol is plain DataOutput: a CONTEXT message (id, width, height,
+ * pixels, renderer, samples, tile size, metric) before a context is first
+ * used, then BATCH messages (count and per genome its context id, vertex
+ * count, polygon count, xs, ys and argb). The worker answers each batch with
+ * a RESULT (count and per genome its tile errors), in the same order.
+ *
+ * @author jaco
+ *
+ */
+public final class RemoteFitnessHelper {
+
+    private static final Logger logger = Logger.getLogger(RemoteFitnessHelper.class);
+
+    static final int CONTEXT = 1;
+    static final int BATCH = 2;
+    static final int RESULT = 3;
+
+    private static int batchSize = 8;
+    private static int pipelineDepth = 2;
+
+    private static final BlockingQueue<Job> pending = new LinkedBlockingQueue<Job>();
+    private static final List<Worker> workers = new CopyOnWriteArrayList<Worker>();
+    // Keyed on the source (SourceBuffer compares by identity), so that the
+    // contexts of a source no longer in use are dropped along with it.
+    private static final Map<SourceBuffer, List<Context>> contexts = new WeakHashMap<SourceBuffer, List<Context>>();
+    private static int nextContextId;
+
+    private RemoteFitnessHelper() {
+    }
+
+    /**
+     * The settings genomes are evaluated with. It does not hold on to the
+     * source, which the jobs carry.
+     */
+    private static final class Context {
+        final int id;
+        final Renderer renderer;
+        final int samples;
+        final int tileSize;
+        final FitnessMetric metric;
+
+        Context(int id, Renderer renderer, int samples, int tileSize, FitnessMetric metric) {
+            this.id = id;
+            this.renderer = renderer;
+            this.samples = samples;
+            this.tileSize = tileSize;
+            this.metric = metric;
+        }
+    }
+
+    /**
+     * A genome waiting to be evaluated; its future completes once a worker
+     * (or this process) has scored it.
+     */
+    private static final class Job {
+        final Context context;
+        final SourceBuffer source;
+        final int[] xs;
+        final int[] ys;
+        final int vertexCount;
+        final int[] argb;
+        final FutureTask<TileFitness> future;
+        volatile TileFitness result;
+
+        Job(Context context, SourceBuffer source, int[] xs, int[] ys, int vertexCount, int[] argb, final FitnessListener listener) {
+            this.context = context;
+            this.source = source;
+            this.xs = xs;
+            this.ys = ys;
+            this.vertexCount = vertexCount;
+            this.argb = argb;
+            this.future = new FutureTask<TileFitness>(new Callable<TileFitness>() {
+                @Override
+                public TileFitness call() throws Exception {
+                    return result;
+                }
+            }) {
+                @Override
+                protected void done() {
+                    if (listener != null) {
+                        listener.fitnessCalculated(this);
+                    }
+                }
+            };
+        }
+
+        /**
+         * Only the first result counts, should a resubmitted job be answered
+         * twice.
+         */
+        synchronized void complete(TileFitness tiles) {
+            if (result == null) {
+                result = tiles;
+                future.run();
+            }
+        }
+    }
+
+    /**
+     * A connection to one worker, with a thread sending batches and one
+     * reading the results.
+     */
+    private static final class Worker {
+        final String address;
+        final Socket socket;
+        final DataOutputStream out;
+        final DataInputStream in;
+        final Semaphore slots = new Semaphore(pipelineDepth);
+        final BlockingQueue<List<Job>> inFlight = new LinkedBlockingQueue<List<Job>>();
+        final Set<Integer> sentContexts = new HashSet<Integer>();
+        volatile boolean failed;
+
+        Worker(String address) throws IOException {
+            this.address = address;
+            String[] hostAndPort = address.trim().split(":");
+            socket = new Socket(hostAndPort[0], Integer.parseInt(hostAndPort[1]));
+            socket.setTcpNoDelay(true);
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+        }
+
+        void start() {
+            Thread sender = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    send();
+                }
+            }, "worker-sender " + address);
+            Thread receiver = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    receive();
+                }
+            }, "worker-receiver " + address);
+            sender.setDaemon(true);
+            receiver.setDaemon(true);
+            sender.start();
+            receiver.start();
+        }
+
+        private void send() {
+            try {
+                while (!failed) {
+                    if (!slots.tryAcquire(1, TimeUnit.SECONDS)) {
+                        continue;
+                    }
+                    Job first = pending.poll(1, TimeUnit.SECONDS);
+                    if (first == null) {
+                        slots.release();
+                        continue;
+                    }
+                    List<Job> batch = new ArrayList<Job>();
+                    batch.add(first);
+                    pending.drainTo(batch, batchSize - 1);
+                    synchronized (this) {
+                        if (failed) {
+                            resubmit(batch);
+                            return;
+                        }
+                        inFlight.add(batch);
+                    }
+                    writeBatch(batch);
+                }
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+
+        private void writeBatch(List<Job> batch) throws IOException {
+            for (Job job : batch) {
+                if (sentContexts.add(job.context.id)) {
+                    Context context = job.context;
+                    out.writeByte(CONTEXT);
+                    out.writeInt(context.id);
+                    out.writeInt(job.source.getWidth());
+                    out.writeInt(job.source.getHeight());
+                    writeInts(out, job.source.getRGB());
+                    out.writeByte(context.renderer.ordinal());
+                    out.writeInt(context.samples);
+                    out.writeInt(context.tileSize);
+                    out.writeByte(context.metric.ordinal());
+                }
+            }
+            out.writeByte(BATCH);
+            out.writeInt(batch.size());
+            for (Job job : batch) {
+                out.writeInt(job.context.id);
+                out.writeInt(job.vertexCount);
+                out.writeInt(job.argb.length);
+                writeInts(out, job.xs);
+                writeInts(out, job.ys);
+                writeInts(out, job.argb);
+            }
+            out.flush();
+        }
+
+        private void receive() {
+            try {
+                while (!failed) {
+                    if (in.readByte() != RESULT) {
+                        throw new IOException("Unexpected message.");
+                    }
+                    int count = in.readInt();
+                    // The batch stays in flight until all its results are in,
+                    // so that fail() resubmits whatever was not answered.
+                    List<Job> batch = inFlight.peek();
+                    if (batch == null) {
+                        throw new IOException("Got results for no batch.");
+                    }
+                    if (count != batch.size()) {
+                        throw new IOException("Expected " + batch.size() + " results, got " + count + ".");
+                    }
+                    for (Job job : batch) {
+                        TileFitness tiles = new TileFitness(job.source.getWidth(), job.source.getHeight(), job.context.tileSize);
+                        int tileCount = in.readInt();
+                        for (int tile = 0; tile < tileCount; tile++) {
+                            tiles.setError(tile, in.readLong());
+                        }
+                        tiles.updateTotal();
+                        job.complete(tiles);
+                        MetricsHelper.evaluated();
+                    }
+                    synchronized (this) {
+                        if (failed) {
+                            return;
+                        }
+                        inFlight.poll();
+                    }
+                    slots.release();
+                }
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Drops the worker and resubmits everything it had not answered yet,
+         * including the jobs of a batch whose results were only partly read.
+         */
+        private synchronized void fail(Exception e) {
+            if (failed) {
+                return;
+            }
+            failed = true;
+            logger.error("Worker " + address + " failed (" + e + "), resubmitting its work.");
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // It is gone anyway.
+            }
+            List<List<Job>> orphans = new ArrayList<List<Job>>();
+            inFlight.drainTo(orphans);
+            synchronized (RemoteFitnessHelper.class) {
+                workers.remove(this);
+                for (List<Job> batch : orphans) {
+                    resubmit(batch);
+                }
+                if (workers.isEmpty()) {
+                    List<Job> rest = new ArrayList<Job>();
+                    pending.drainTo(rest);
+                    resubmit(rest);
+                }
+            }
+        }
+
+        private void resubmit(List<Job> batch) {
+            for (Job job : batch) {
+                if (job.result == null) {
+                    submit(job);
+                }
+            }
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in, int count) throws IOException {
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    /**
+     * Connects to the workers listed in the "workers" property. Workers that
+     * cannot be reached are skipped.
+     */
+    public static synchronized void setParameters(Properties properties) {
+        batchSize = Math.max(1, Integer.parseInt(properties.getProperty("remoteBatchSize", "8")));
+        pipelineDepth = Math.max(1, Integer.parseInt(properties.getProperty("remotePipelineDepth", "2")));
+        String addresses = properties.getProperty("workers", "").trim();
+        if (addresses.length() == 0 || !workers.isEmpty()) {
+            return;
+        }
+        for (String address : addresses.split(",")) {
+            try {
+                Worker worker = new Worker(address);
+                workers.add(worker);
+                worker.start();
+                logger.debug("Connected to worker " + address + ".");
+            } catch (IOException e) {
+                logger.error("I could not connect to worker " + address + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * True if there are workers to evaluate on.
+     *
+     * @return
+     */
+    public static boolean isEnabled() {
+        return !workers.isEmpty();
+    }
+
+    private static synchronized Context getContext(SourceBuffer source, Renderer renderer, int samples, int tileSize, FitnessMetric metric) {
+        List<Context> mine = contexts.get(source);
+        if (mine == null) {
+            mine = new ArrayList<Context>();
+            contexts.put(source, mine);
+        }
+        for (Context context : mine) {
+            if (context.renderer == renderer && context.samples == samples && context.tileSize == tileSize && context.metric == metric) {
+                return context;
+            }
+        }
+        Context context = new Context(nextContextId++, renderer, samples, tileSize, metric);
+        mine.add(context);
+        return context;
+    }
+
+    /**
+     * Queues the genome for the next free worker; the same as
+     * FitnessHelper.submitEvaluationTask() otherwise, bar the cutoff.
+     */
+    public static Future<TileFitness> submitEvaluationTask(SourceBuffer source, int[] xs, int[] ys, int vertexCount, int[] argb,
+                    Renderer renderer, int samples, int tileSize, FitnessMetric metric, FitnessListener listener) {
+        Job job = new Job(getContext(source, renderer, samples, tileSize, metric), source, xs, ys, vertexCount, argb, listener);
+        submit(job);
+        return job.future;
+    }
+
+    private static synchronized void submit(Job job) {
+        if (workers.isEmpty()) {
+            evaluateLocally(job);
+        } else {
+            pending.add(job);
+        }
+    }
+
+    private static void evaluateLocally(final Job job) {
+        Context context = job.context;
+        FitnessHelper.submitEvaluationTask(job.source, job.xs, job.ys, job.vertexCount, job.argb, context.renderer, context.samples,
+                        context.tileSize, context.metric, FitnessHelper.NO_CUTOFF, new FitnessListener() {
+                            @Override
+                            public void fitnessCalculated(Future<TileFitness> fitness) {
+                                job.complete(FitnessHelper.waitForFitness(fitness));
+                            }
+                        });
+    }
+
+    /**
+     * The worker side: accepts coordinators on the given port, forever, and
+     * evaluates their genomes in this process's pool.
+     */
+    public static void serve(int port) throws IOException {
+        ServerSocket server = new ServerSocket(port);
+        logger.info("Waiting for coordinators on port " + port + ".");
+        while (true) {
+            final Socket socket = server.accept();
+            socket.setTcpNoDelay(true);
+            Thread connection = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        serve(socket);
+                    } catch (Exception e) {
+                        logger.info("Coordinator " + socket.getRemoteSocketAddress() + " went away (" + e + ").");
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException ignored) {
+                            // Closing anyway.
+                        }
+                    }
+                }
+            }, "coordinator " + socket.getRemoteSocketAddress());
+            connection.start();
+        }
+    }
+
+    /**
+     * Reads batches and starts evaluating them straight away, while a second
+     * thread writes the results back in order as they complete. That way the
+     * next batch is already being read while the current one is evaluated.
+     */
+    static void serve(final Socket socket) throws Exception {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+        final BlockingQueue<List<Future<TileFitness>>> results = new LinkedBlockingQueue<List<Future<TileFitness>>>();
+        final List<Future<TileFitness>> end = new ArrayList<Future<TileFitness>>();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (List<Future<TileFitness>> batch = results.take(); batch != end; batch = results.take()) {
+                        out.writeByte(RESULT);
+                        out.writeInt(batch.size());
+                        for (Future<TileFitness> fitness : batch) {
+                            TileFitness tiles = FitnessHelper.waitForFitness(fitness);
+                            out.writeInt(tiles.getTileCount());
+                            for (int tile = 0; tile < tiles.getTileCount(); tile++) {
+                                out.writeLong(tiles.getError(tile));
+                            }
+                        }
+                        out.flush();
+                    }
+                } catch (Exception e) {
+                    // Closing the socket ends the reader too, and tells the
+                    // coordinator to resubmit what was not answered.
+                    logger.error("Could not send results (" + e + "), dropping the coordinator.");
+                    try {
+                        socket.close();
+                    } catch (IOException ignored) {
+                        // Closing anyway.
+                    }
+                }
+            }
+        }, "results " + socket.getRemoteSocketAddress());
+        writer.setDaemon(true);
+        writer.start();
+
+        Map<Integer, Context> received = new HashMap<Integer, Context>();
+        Map<Integer, SourceBuffer> sources = new HashMap<Integer, SourceBuffer>();
+        try {
+            while (true) {
+                int message = in.readByte();
+                if (message == CONTEXT) {
+                    int id = in.readInt();
+                    int width = in.readInt();
+                    int height = in.readInt();
+                    SourceBuffer source = new SourceBuffer(width, height, readInts(in, width * height));
+                    Renderer renderer = Renderer.values()[in.readByte()];
+                    int samples = in.readInt();
+                    int tileSize = in.readInt();
+                    FitnessMetric metric = FitnessMetric.values()[in.readByte()];
+                    received.put(id, new Context(id, renderer, samples, tileSize, metric));
+                    sources.put(id, source);
+                } else if (message == BATCH) {
+                    int count = in.readInt();
+                    List<Future<TileFitness>> batch = new ArrayList<Future<TileFitness>>(count);
+                    for (int i = 0; i < count; i++) {
+                        int id = in.readInt();
+                        Context context = received.get(id);
+                        SourceBuffer source = sources.get(id);
+                        int vertexCount = in.readInt();
+                        int polygonCount = in.readInt();
+                        int[] xs = readInts(in, polygonCount * vertexCount);
+                        int[] ys = readInts(in, polygonCount * vertexCount);
+                        int[] argb = readInts(in, polygonCount);
+                        batch.add(FitnessHelper.submitEvaluationTask(source, xs, ys, vertexCount, argb, context.renderer,
+                                        context.samples, context.tileSize, context.metric, FitnessHelper.NO_CUTOFF, null));
+                    }
+                    results.add(batch);
+                } else {
+                    throw new IOException("Unexpected message " + message + ".");
+                }
+            }
+        } finally {
+            results.add(end);
+        }
+    }
+
+}
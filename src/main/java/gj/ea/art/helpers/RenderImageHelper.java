@@ -2,13 +2,11 @@ package gj.ea.art.helpers;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
-import java.awt.Polygon;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 /**
@@ -19,9 +17,49 @@ import java.util.concurrent.Future;
  */
 public final class RenderImageHelper {
 
-    private static final int THREAD_COUNT = 5;
+    // How far anti-aliasing may bleed outside a polygon's bounding box.
+    static final int AA_MARGIN = 1;
 
-    private static ExecutorService service = Executors.newFixedThreadPool(THREAD_COUNT);
+    /**
+     * The available renderers: Java2D's fillPolygon, or our own integer
+     * scanline rasteriser (PolygonRasterizer).
+     */
+    public enum Renderer {
+        JAVA2D, SCANLINE
+    }
+
+    // Rasterisers hold scratch space, so each thread gets its own (indexed by
+    // the number of samples, at most 8).
+    private static final ThreadLocal<PolygonRasterizer[]> rasterizers = new ThreadLocal<PolygonRasterizer[]>() {
+        @Override
+        protected PolygonRasterizer[] initialValue() {
+            return new PolygonRasterizer[9];
+        }
+    };
+
+    /**
+     * A thread's scratch image for one renderer, with its graphics context
+     * (Java2D only). The image only grows.
+     */
+    private static final class Scratch {
+
+        private BufferedImage image;
+        private Graphics2D graphics;
+        private int[] px = new int[0];
+        private int[] py = new int[0];
+    }
+
+    // Scratch images to render into, one per thread and renderer.
+    private static final ThreadLocal<Scratch[]> scratches = new ThreadLocal<Scratch[]>() {
+        @Override
+        protected Scratch[] initialValue() {
+            Scratch[] scratch = new Scratch[Renderer.values().length];
+            for (int i = 0; i < scratch.length; i++) {
+                scratch[i] = new Scratch();
+            }
+            return scratch;
+        }
+    };
 
     private RenderImageHelper() {
     }
@@ -29,31 +67,209 @@ public final class RenderImageHelper {
     // Generate colour histogram...
     // ...
     
-    public static Future<BufferedImage> submitNewRenderTask(Polygon[] polygons, Color[] colours, int width, int height, boolean smooth) {
-        return submitNewRenderTask(polygons, colours, polygons.length, width, height, smooth);
-    }
-
-    public static Future<BufferedImage> submitNewRenderTask(final Polygon[] polygons, final Color[] colours, final int numberOfPolygonsToRender,
-                    final int width, final int height, final boolean smooth) {
+    /**
+     * Renders the packed genome: polygon i has the vertexCount points
+     * starting at xs/ys[i * vertexCount] and the (non-premultiplied) ARGB
+     * colour argb[i].
+     */
+    public static Future<BufferedImage> submitNewRenderTask(final int[] xs, final int[] ys, final int vertexCount, final int[] argb,
+                    final int numberOfPolygonsToRender, final int width, final int height, final Renderer renderer, final int samples) {
         
-        Future<BufferedImage> result = service.submit(new Callable<BufferedImage>() {
+        Future<BufferedImage> result = ExecutorHelper.getPool().submit(new Callable<BufferedImage>() {
             @Override
             public BufferedImage call() throws Exception {
-                BufferedImage attempt = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
-                Graphics2D g2d = (Graphics2D) attempt.getGraphics();
-                g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, smooth ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
-                g2d.setColor(Color.white);
-                g2d.fillRect(0, 0, attempt.getWidth(), attempt.getHeight());
-                for (int i = 0; i < numberOfPolygonsToRender; i++) {
-                    g2d.setColor(colours[i]);
-                    g2d.fillPolygon(polygons[i]);
-                }
-                return attempt;
+                return render(xs, ys, vertexCount, argb, numberOfPolygonsToRender, 0, 0, width, height, renderer, samples);
             }
         });
         return result;
     }
-    
+
+    /**
+     * Renders the region (x, y, width, height) of the full canvas into an
+     * image of the size of the region. Only the polygons that could touch the
+     * region are drawn, which makes this cheap for small regions.
+     * 
+     * @param samples
+     *            samples per pixel along each axis for anti-aliasing, 1 for
+     *            none. Java2D only distinguishes between 1 and more.
+     * @return
+     */
+    public static BufferedImage render(int[] xs, int[] ys, int vertexCount, int[] argb, int numberOfPolygonsToRender, int x, int y,
+                    int width, int height, Renderer renderer, int samples) {
+        if (renderer == Renderer.JAVA2D) {
+            return renderJava2D(xs, ys, vertexCount, argb, numberOfPolygonsToRender, x, y, width, height, samples > 1);
+        }
+        BufferedImage attempt = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = ((DataBufferInt) attempt.getRaster().getDataBuffer()).getData();
+        PolygonRasterizer rasterizer = rasterizer(samples);
+        rasterizer.setTarget(pixels, x, y, width, height);
+        rasterizer.clear(0xffffffff);
+        boolean whole = x == 0 && y == 0;
+        for (int i = 0; i < numberOfPolygonsToRender; i++) {
+            int offset = i * vertexCount;
+            if (whole || intersects(xs, ys, offset, vertexCount, x, y, width, height)) {
+                rasterizer.fillPolygon(xs, ys, offset, vertexCount, argb[i]);
+            }
+        }
+        return attempt;
+    }
+
+    /**
+     * As render(), but into the calling thread's scratch image, which is
+     * returned and only valid until the thread's next call. The region is
+     * drawn into the top-left corner of the image, which may be larger than
+     * the region (its width is the stride of the rows). Nothing is allocated
+     * once the image is large enough, so use this when the image does not
+     * escape, such as for scoring.
+     */
+    public static BufferedImage renderScratch(int[] xs, int[] ys, int vertexCount, int[] argb, int numberOfPolygonsToRender, int x,
+                    int y, int width, int height, Renderer renderer, int samples) {
+        return renderScratch(xs, ys, vertexCount, argb, null, 0, numberOfPolygonsToRender, x, y, width, height, renderer, samples);
+    }
+
+    /**
+     * As above, but only draws the polygons in the given band of the
+     * buckets, which must contain the region.
+     */
+    public static BufferedImage renderScratch(int[] xs, int[] ys, int vertexCount, int[] argb, PolygonBuckets buckets, int band, int x,
+                    int y, int width, int height, Renderer renderer, int samples) {
+        return renderScratch(xs, ys, vertexCount, argb, buckets.getPolygons(), buckets.getStart(band), buckets.getEnd(band), x, y, width,
+                        height, renderer, samples);
+    }
+
+    /**
+     * Draws polygons[from] up to (excluding) polygons[to], or polygons from
+     * up to to if polygons is null, into the scratch image.
+     */
+    private static BufferedImage renderScratch(int[] xs, int[] ys, int vertexCount, int[] argb, int[] polygons, int from, int to, int x,
+                    int y, int width, int height, Renderer renderer, int samples) {
+        Scratch scratch = scratches.get()[renderer.ordinal()];
+        if (scratch.image == null || scratch.image.getWidth() < width || scratch.image.getHeight() < height) {
+            int scratchWidth = Math.max(width, scratch.image == null ? 0 : scratch.image.getWidth());
+            int scratchHeight = Math.max(height, scratch.image == null ? 0 : scratch.image.getHeight());
+            if (scratch.graphics != null) {
+                scratch.graphics.dispose();
+                scratch.graphics = null;
+            }
+            if (renderer == Renderer.JAVA2D) {
+                scratch.image = new BufferedImage(scratchWidth, scratchHeight, BufferedImage.TYPE_4BYTE_ABGR);
+                scratch.graphics = (Graphics2D) scratch.image.getGraphics();
+            } else {
+                scratch.image = new BufferedImage(scratchWidth, scratchHeight, BufferedImage.TYPE_INT_ARGB);
+            }
+        }
+        boolean whole = x == 0 && y == 0;
+        if (renderer == Renderer.JAVA2D) {
+            Graphics2D g2d = scratch.graphics;
+            g2d.setClip(0, 0, width, height);
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, samples > 1 ? RenderingHints.VALUE_ANTIALIAS_ON
+                            : RenderingHints.VALUE_ANTIALIAS_OFF);
+            g2d.setColor(Color.white);
+            g2d.fillRect(0, 0, width, height);
+            g2d.translate(-x, -y);
+            if (scratch.px.length < vertexCount) {
+                scratch.px = new int[vertexCount];
+                scratch.py = new int[vertexCount];
+            }
+            for (int k = from; k < to; k++) {
+                int i = polygons == null ? k : polygons[k];
+                int offset = i * vertexCount;
+                if (whole || intersects(xs, ys, offset, vertexCount, x, y, width, height)) {
+                    System.arraycopy(xs, offset, scratch.px, 0, vertexCount);
+                    System.arraycopy(ys, offset, scratch.py, 0, vertexCount);
+                    g2d.setColor(new Color(argb[i], true));
+                    g2d.fillPolygon(scratch.px, scratch.py, vertexCount);
+                }
+            }
+            g2d.translate(x, y);
+            return scratch.image;
+        }
+        int[] pixels = ((DataBufferInt) scratch.image.getRaster().getDataBuffer()).getData();
+        PolygonRasterizer rasterizer = rasterizer(samples);
+        rasterizer.setTarget(pixels, x, y, width, height, scratch.image.getWidth());
+        rasterizer.clear(0xffffffff);
+        for (int k = from; k < to; k++) {
+            int i = polygons == null ? k : polygons[k];
+            int offset = i * vertexCount;
+            if (whole || intersects(xs, ys, offset, vertexCount, x, y, width, height)) {
+                rasterizer.fillPolygon(xs, ys, offset, vertexCount, argb[i]);
+            }
+        }
+        return scratch.image;
+    }
+
+    private static BufferedImage renderJava2D(int[] xs, int[] ys, int vertexCount, int[] argb, int numberOfPolygonsToRender, int x, int y,
+                    int width, int height, boolean smooth) {
+        BufferedImage attempt = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
+        Graphics2D g2d = (Graphics2D) attempt.getGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, smooth ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
+        g2d.setColor(Color.white);
+        g2d.fillRect(0, 0, width, height);
+        g2d.translate(-x, -y);
+        boolean whole = x == 0 && y == 0;
+        int[] px = new int[vertexCount];
+        int[] py = new int[vertexCount];
+        for (int i = 0; i < numberOfPolygonsToRender; i++) {
+            int offset = i * vertexCount;
+            if (whole || intersects(xs, ys, offset, vertexCount, x, y, width, height)) {
+                System.arraycopy(xs, offset, px, 0, vertexCount);
+                System.arraycopy(ys, offset, py, 0, vertexCount);
+                g2d.setColor(new Color(argb[i], true));
+                g2d.fillPolygon(px, py, vertexCount);
+            }
+        }
+        g2d.dispose();
+        return attempt;
+    }
+
+    /**
+     * The calling thread's rasteriser for the given number of samples.
+     */
+    private static PolygonRasterizer rasterizer(int samples) {
+        PolygonRasterizer.checkSamples(samples);
+        PolygonRasterizer[] mine = rasterizers.get();
+        if (mine[samples] == null) {
+            mine[samples] = new PolygonRasterizer(samples);
+        }
+        return mine[samples];
+    }
+
+    /**
+     * Returns true if the bounding box of the polygon (the n points from
+     * offset), grown by the anti-aliasing margin, overlaps the given region.
+     */
+    public static boolean intersects(int[] xs, int[] ys, int offset, int n, int x, int y, int width, int height) {
+        if (n == 0) {
+            return false;
+        }
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (int i = offset; i < offset + n; i++) {
+            minX = Math.min(minX, xs[i]);
+            maxX = Math.max(maxX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        return minX - AA_MARGIN < x + width && maxX + AA_MARGIN + 1 > x && minY - AA_MARGIN < y + height && maxY + AA_MARGIN + 1 > y;
+    }
+
+    /**
+     * The bounding box of the polygon (the n points from offset) as {minX,
+     * minY, maxX, maxY} (max exclusive), grown by a pixel on each side for
+     * anti-aliasing.
+     */
+    public static int[] bounds(int[] xs, int[] ys, int offset, int n) {
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (int i = offset; i < offset + n; i++) {
+            minX = Math.min(minX, xs[i]);
+            maxX = Math.max(maxX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        return new int[] { minX - AA_MARGIN, minY - AA_MARGIN, maxX + AA_MARGIN + 1, maxY + AA_MARGIN + 1 };
+    }
+
     public static BufferedImage waitForImage(Future<BufferedImage> future) {
         try {
             return future.get();
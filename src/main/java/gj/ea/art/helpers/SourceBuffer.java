@@ -0,0 +1,99 @@
+package gj.ea.art.helpers;
+
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The pixels of the source image, unpacked once into packed RGB ints (row by
+ * row) so that the fitness kernels can read them straight from an array
+ * instead of calling BufferedImage.getRGB() per pixel.
+ *
+ * @author jaco
+ *
+ */
+public final class SourceBuffer {
+
+    private final int width;
+    private final int height;
+    private final int[] rgb;
+
+    // Downsampled copies, by factor, built when first asked for.
+    private final Map<Integer, SourceBuffer> levels = new HashMap<Integer, SourceBuffer>();
+
+    public SourceBuffer(BufferedImage image) {
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        this.rgb = image.getRGB(0, 0, width, height, null, 0, width);
+    }
+
+    /**
+     * Wraps pixels that have been unpacked already, e.g. received from a
+     * coordinator by a remote worker.
+     */
+    public SourceBuffer(int width, int height, int[] rgb) {
+        this.width = width;
+        this.height = height;
+        this.rgb = rgb;
+    }
+
+    /**
+     * The source scaled down by the given factor (rounding the size up), each
+     * pixel being the average of the factor x factor pixels it covers. Used
+     * to estimate the fitness of a solution cheaply.
+     *
+     * @param factor
+     * @return
+     */
+    public synchronized SourceBuffer getLevel(int factor) {
+        if (factor <= 1) {
+            return this;
+        }
+        SourceBuffer level = levels.get(factor);
+        if (level == null) {
+            level = downsample(factor);
+            levels.put(factor, level);
+        }
+        return level;
+    }
+
+    private SourceBuffer downsample(int factor) {
+        int levelWidth = (width + factor - 1) / factor;
+        int levelHeight = (height + factor - 1) / factor;
+        int[] levelRGB = new int[levelWidth * levelHeight];
+        for (int y = 0; y < levelHeight; y++) {
+            for (int x = 0; x < levelWidth; x++) {
+                int r = 0, g = 0, b = 0, count = 0;
+                for (int j = y * factor; j < Math.min((y + 1) * factor, height); j++) {
+                    for (int i = x * factor; i < Math.min((x + 1) * factor, width); i++) {
+                        int pixel = rgb[j * width + i];
+                        r += (pixel >> 16) & 0xff;
+                        g += (pixel >> 8) & 0xff;
+                        b += pixel & 0xff;
+                        count++;
+                    }
+                }
+                levelRGB[y * levelWidth + x] = 0xff000000 | (r / count) << 16 | (g / count) << 8 | b / count;
+            }
+        }
+        return new SourceBuffer(levelWidth, levelHeight, levelRGB);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * The packed pixels; not to be modified.
+     *
+     * @return
+     */
+    public int[] getRGB() {
+        return rgb;
+    }
+
+}
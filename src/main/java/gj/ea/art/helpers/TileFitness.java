@@ -0,0 +1,93 @@
+package gj.ea.art.helpers;
+
+/**
+ * The fitness of a rendered solution, broken down into square tiles. The
+ * per-tile error sums allow an offspring to only re-score the tiles that
+ * differ from its parent and take the rest from the parent as is.
+ *
+ * @author jaco
+ *
+ */
+public final class TileFitness {
+
+    private final int tileSize;
+    private final int columns;
+    private final int rows;
+    private final long[] errors;
+    private long total;
+    private boolean cutOff;
+
+    public TileFitness(int width, int height, int tileSize) {
+        this.tileSize = tileSize;
+        this.columns = (width + tileSize - 1) / tileSize;
+        this.rows = (height + tileSize - 1) / tileSize;
+        this.errors = new long[columns * rows];
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getTileCount() {
+        return errors.length;
+    }
+
+    public long getError(int tile) {
+        return errors[tile];
+    }
+
+    /**
+     * Tiles may be set from several threads at once, as long as each sets
+     * its own; call updateTotal() once they are all done.
+     */
+    void setError(int tile, long error) {
+        errors[tile] = error;
+    }
+
+    void updateTotal() {
+        long sum = 0;
+        for (long error : errors) {
+            sum += error;
+        }
+        total = sum;
+    }
+
+    /**
+     * Marks the evaluation as abandoned once the partial total passed the
+     * cutoff; the tile errors are then incomplete.
+     */
+    void cutOff(long partial) {
+        total = partial;
+        cutOff = true;
+    }
+
+    /**
+     * The sum of all the tile errors, i.e. the fitness of the solution. If
+     * the evaluation was cut off, it is only known to be at least this (and
+     * more than the cutoff).
+     *
+     * @return
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * True if the evaluation stopped early because the solution was already
+     * worse than the cutoff. The tile errors cannot be reused then.
+     *
+     * @return
+     */
+    public boolean isCutOff() {
+        return cutOff;
+    }
+
+}
@@ -0,0 +1,200 @@
+package gj.ea.art.ga;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import gj.ea.art.BinaryState;
+import gj.ea.art.EvolutionaryAlgorithm;
+import gj.ea.art.helpers.PersistenceHelper;
+import gj.ea.art.helpers.RandomHelper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Saves evolved algorithms in the binary checkpoint format and in the
+ * serialised legacy format, loads them back through PersistenceHelper and
+ * checks that the genes, counters and properties survive.
+ *
+ * @author jaco
+ *
+ */
+public class GAStateTest {
+
+    private static final int MAGIC = 0x47415053; // "GAPS"
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("gastate", "");
+        directory.delete();
+        directory.mkdir();
+    }
+
+    @After
+    public void tearDown() {
+        delete(directory);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static Properties properties() throws Exception {
+        Properties properties = new Properties();
+        properties.load(GAStateTest.class.getResourceAsStream("/gj/ea/art/ga.properties"));
+        properties.setProperty("imageSize", "60");
+        properties.setProperty("polygonCount", "20");
+        properties.setProperty("populationSize", "6");
+        properties.setProperty("islandCount", "2");
+        properties.setProperty("migrationInterval", "2");
+        properties.setProperty("randomSeed", "11");
+        return properties;
+    }
+
+    private static String tux() throws Exception {
+        return new File(GAStateTest.class.getResource("/gj/ea/art/tux.jpg").toURI()).getPath();
+    }
+
+    /**
+     * A GA a few generations on. As an island it does not checkpoint itself
+     * into the working directory.
+     */
+    private static GA evolve() throws Exception {
+        Properties properties = properties();
+        RandomHelper.setParameters(properties);
+        GA ga = new GA();
+        ga.initialise(tux(), properties);
+        ga.setIsland();
+        for (int i = 0; i < 5; i++) {
+            ga.iterate();
+        }
+        return ga;
+    }
+
+    private static byte[] state(EvolutionaryAlgorithm ea) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        ((BinaryState) ea).writeState(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Same class, same genes and properties, and the same state written
+     * (which covers the counters).
+     */
+    private static void assertSameState(EvolutionaryAlgorithm expected, EvolutionaryAlgorithm actual) throws IOException {
+        assertNotNull("The state could not be loaded.", actual);
+        assertEquals(expected.getClass(), actual.getClass());
+        assertEquals(expected.getGenerationCounter(), actual.getGenerationCounter());
+        assertEquals(expected.getProgressString(), actual.getProgressString());
+        if (expected instanceof GA) {
+            GASolution[] population = ((GA) expected).getMigrants(Integer.MAX_VALUE);
+            GASolution[] loaded = ((GA) actual).getMigrants(Integer.MAX_VALUE);
+            assertEquals(population.length, loaded.length);
+            for (int i = 0; i < population.length; i++) {
+                assertArrayEquals(population[i].xs, loaded[i].xs);
+                assertArrayEquals(population[i].ys, loaded[i].ys);
+                assertArrayEquals(population[i].argb, loaded[i].argb);
+                assertEquals(population[i].getProperties(), loaded[i].getProperties());
+                assertEquals(population[i].getSourceImageFileName(), loaded[i].getSourceImageFileName());
+            }
+        }
+        assertArrayEquals(state(expected), state(actual));
+    }
+
+    private static int firstInt(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            return in.readInt();
+        } finally {
+            in.close();
+        }
+    }
+
+    private void writeSerialised(EvolutionaryAlgorithm ea, File file) throws IOException {
+        ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file));
+        try {
+            out.writeObject(ea);
+        } finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void roundTripsGA() throws Exception {
+        GA ga = evolve();
+        for (String deflate : new String[] { "true", "false" }) {
+            Properties properties = new Properties();
+            properties.setProperty("checkpointDeflate", deflate);
+            PersistenceHelper.setParameters(properties);
+            File file = new File(directory, "eastate-" + deflate);
+            PersistenceHelper.saveState(ga, file.getPath());
+            assertEquals(MAGIC, firstInt(file));
+            assertSameState(ga, PersistenceHelper.loadState(file.getPath(), false));
+        }
+        PersistenceHelper.setParameters(new Properties());
+    }
+
+    @Test
+    public void roundTripsIslandGA() throws Exception {
+        // Not iterated, as that would checkpoint into the working directory.
+        IslandGA islands = new IslandGA();
+        islands.initialise(tux(), properties());
+        File file = new File(directory, "eastate");
+        PersistenceHelper.saveState(islands, file.getPath());
+        assertSameState(islands, PersistenceHelper.loadState(file.getPath(), false));
+    }
+
+    @Test
+    public void readsAndMigratesSerialisedState() throws Exception {
+        GA ga = evolve();
+        File file = new File(directory, "eastate");
+        writeSerialised(ga, file);
+
+        // Without migrating, the file is left alone.
+        assertSameState(ga, PersistenceHelper.loadState(file.getPath(), false));
+        assertTrue(firstInt(file) != MAGIC);
+        assertTrue(!new File(directory, "eastate.ser").exists());
+
+        assertSameState(ga, PersistenceHelper.loadState(file.getPath()));
+        assertEquals(MAGIC, firstInt(file));
+        assertTrue(new File(directory, "eastate.ser").exists());
+        assertSameState(ga, PersistenceHelper.loadState(file.getPath(), false));
+    }
+
+    @Test
+    public void keepsTheStateWhenMigrationFails() throws Exception {
+        GA ga = evolve();
+        File file = new File(directory, "eastate");
+        writeSerialised(ga, file);
+        // A non-empty directory in the way of the backup copy.
+        File backup = new File(directory, "eastate.ser");
+        backup.mkdir();
+        new File(backup, "in-the-way").createNewFile();
+
+        assertSameState(ga, PersistenceHelper.loadState(file.getPath()));
+        assertTrue(firstInt(file) != MAGIC);
+    }
+
+}
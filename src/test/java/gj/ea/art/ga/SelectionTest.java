@@ -0,0 +1,157 @@
+package gj.ea.art.ga;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import gj.ea.art.helpers.RandomHelper;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Lets offspring compete with the population in shuffled orders of
+ * finishing and checks that the survivors, and their order, are those of a
+ * stable sort of the offspring followed by the population. Some offspring
+ * tie with a parent or with each other, the population holds a tie of its
+ * own, and the offspring are evaluated with the worst parent as cutoff, so
+ * that the worse ones only have a partial fitness.
+ *
+ * @author jaco
+ *
+ */
+public class SelectionTest {
+
+    private static final int WIDTH = 40;
+    private static final int HEIGHT = 30;
+    private static final int POPULATION = 10;
+    private static final int ORDERS = 20;
+
+    private GASolution[] population;
+    private Random random;
+
+    @Before
+    public void setUp() throws Exception {
+        Properties properties = new Properties();
+        properties.load(SelectionTest.class.getResourceAsStream("/gj/ea/art/ga.properties"));
+        properties.setProperty("polygonCount", "12");
+        properties.setProperty("fitnessTileSize", "8");
+        properties.setProperty("randomSeed", "5");
+        RandomHelper.setParameters(properties);
+        random = new Random(5);
+
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                image.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+        GASolution first = new GASolution("selection", image, properties);
+        population = new GASolution[POPULATION];
+        for (int i = 0; i < POPULATION; i++) {
+            population[i] = i == 0 ? first : first.newSibling();
+            population[i].initialise();
+        }
+        population[POPULATION - 1] = copy(population[2]);
+        for (GASolution solution : population) {
+            solution.getFitness();
+        }
+        GA.sort(population, true);
+    }
+
+    private static GASolution copy(GASolution solution) {
+        GASolution copy = solution.newSibling();
+        copy.xs = solution.xs.clone();
+        copy.ys = solution.ys.clone();
+        copy.argb = solution.argb.clone();
+        return copy;
+    }
+
+    /**
+     * A fresh generation of offspring, evaluated: copies of parents, two
+     * identical ones, parents with a polygon moved and new random genomes.
+     */
+    private GASolution[] offspring(long cutoff) throws InterruptedException {
+        GASolution[] offspring = new GASolution[POPULATION];
+        GASolution twin = null;
+        for (int i = 0; i < POPULATION; i++) {
+            GASolution parent = population[random.nextInt(POPULATION)];
+            switch (i % 4) {
+            case 0:
+                offspring[i] = copy(parent);
+                break;
+            case 1:
+                offspring[i] = twin == null ? copy(parent) : copy(twin);
+                twin = offspring[i];
+                break;
+            case 2:
+                offspring[i] = copy(parent);
+                int j = random.nextInt(offspring[i].xs.length);
+                offspring[i].xs[j] = random.nextInt(WIDTH + 1);
+                offspring[i].ys[j] = random.nextInt(HEIGHT + 1);
+                break;
+            default:
+                offspring[i] = parent.newSibling();
+                offspring[i].initialise();
+            }
+            offspring[i].newborn = true;
+        }
+        BlockingQueue<GASolution> evaluated = new LinkedBlockingQueue<GASolution>();
+        for (GASolution solution : offspring) {
+            solution.evaluate(population[0], population[1], evaluated, cutoff);
+        }
+        for (int i = 0; i < POPULATION; i++) {
+            evaluated.take();
+        }
+        return offspring;
+    }
+
+    @Test
+    public void survivorsDoNotDependOnTheOrderOfFinishing() throws Exception {
+        int ties = 0;
+        int cutOff = 0;
+        for (int order = 0; order < ORDERS; order++) {
+            // As in GA.iterate(): offspring worse than the worst parent cannot survive.
+            GASolution[] offspring = offspring(population[POPULATION - 1].getFitness());
+            GASolution[] all = new GASolution[2 * POPULATION];
+            System.arraycopy(offspring, 0, all, 0, POPULATION);
+            System.arraycopy(population, 0, all, POPULATION, POPULATION);
+            for (GASolution solution : offspring) {
+                cutOff += solution.isCutOff() ? 1 : 0;
+            }
+            // Stable, so ties keep the offspring before the population.
+            GA.sort(all, true);
+            for (int i = 1; i < all.length; i++) {
+                ties += all[i].getFitness() == all[i - 1].getFitness() ? 1 : 0;
+            }
+
+            List<GASolution> finished = new ArrayList<GASolution>(Arrays.asList(offspring));
+            if (order == 1) {
+                Collections.reverse(finished);
+            } else if (order > 1) {
+                Collections.shuffle(finished, random);
+            }
+            GASolution[] survivors = population.clone();
+            new GA().selectSurvivors(survivors, offspring, finished);
+
+            for (int i = 0; i < POPULATION; i++) {
+                assertSame("Order " + order + ", survivor " + i, all[i], survivors[i]);
+            }
+            population = survivors;
+            for (GASolution solution : population) {
+                solution.newborn = false;
+            }
+        }
+        assertTrue("Only " + ties + " ties.", ties >= ORDERS);
+        assertTrue("No offspring were cut off.", cutOff > 0);
+    }
+
+}
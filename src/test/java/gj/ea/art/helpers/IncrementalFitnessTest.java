@@ -0,0 +1,202 @@
+package gj.ea.art.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import gj.ea.art.helpers.RenderImageHelper.Renderer;
+
+import java.util.Random;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * Mutates random genomes and checks that re-scoring only the dirty tiles
+ * (marked the way GASolution marks them: the bounding boxes, grown by
+ * RenderImageHelper.AA_MARGIN, of both the old and the new shape of every
+ * changed polygon) gives exactly the tile errors of a full evaluation.
+ * The image is not a whole number of tiles wide or high, and the polygons
+ * are drawn to tile edges, image edges and beyond.
+ *
+ * @author jaco
+ *
+ */
+public class IncrementalFitnessTest {
+
+    private static final int WIDTH = 70;
+    private static final int HEIGHT = 53;
+    private static final int TILE_SIZE = 16;
+    private static final int VERTICES = 3;
+    private static final int POLYGONS = 30;
+    private static final int MUTATIONS = 40;
+
+    @Test
+    public void scanlineMatchesFullEvaluation() {
+        assertIncrementalMatchesFull(Renderer.SCANLINE, 1);
+    }
+
+    @Test
+    public void scanlineWithSupersamplingMatchesFullEvaluation() {
+        assertIncrementalMatchesFull(Renderer.SCANLINE, 4);
+    }
+
+    @Test
+    public void java2DMatchesFullEvaluation() {
+        assertIncrementalMatchesFull(Renderer.JAVA2D, 1);
+    }
+
+    @Test
+    public void java2DWithSupersamplingMatchesFullEvaluation() {
+        assertIncrementalMatchesFull(Renderer.JAVA2D, 4);
+    }
+
+    private static void assertIncrementalMatchesFull(Renderer renderer, int samples) {
+        Random random = new Random(7);
+        int[] rgb = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < rgb.length; i++) {
+            rgb[i] = 0xff000000 | random.nextInt(0x1000000);
+        }
+        SourceBuffer source = new SourceBuffer(WIDTH, HEIGHT, rgb);
+
+        int[] xs = new int[POLYGONS * VERTICES];
+        int[] ys = new int[POLYGONS * VERTICES];
+        int[] argb = new int[POLYGONS];
+        for (int i = 0; i < POLYGONS; i++) {
+            randomPolygon(random, xs, ys, argb, i);
+        }
+        Future<TileFitness> parent = evaluate(source, xs, ys, argb, renderer, samples);
+        int incremental = 0;
+        for (int mutation = 0; mutation < MUTATIONS; mutation++) {
+            int[] childXs = xs.clone();
+            int[] childYs = ys.clone();
+            int[] childArgb = argb.clone();
+            int changes = 1 + random.nextInt(3);
+            for (int k = 0; k < changes; k++) {
+                mutate(random, childXs, childYs, childArgb, random.nextInt(POLYGONS));
+            }
+
+            boolean[] dirty = new boolean[columns() * rows()];
+            int count = 0;
+            for (int i = 0; i < POLYGONS; i++) {
+                if (!sameGene(xs, ys, argb, childXs, childYs, childArgb, i)) {
+                    count += markTiles(RenderImageHelper.bounds(xs, ys, i * VERTICES, VERTICES), dirty);
+                    count += markTiles(RenderImageHelper.bounds(childXs, childYs, i * VERTICES, VERTICES), dirty);
+                }
+            }
+            if (count < dirty.length) {
+                incremental++;
+            }
+
+            TileFitness expected = FitnessHelper.waitForFitness(evaluate(source, childXs, childYs, childArgb, renderer, samples));
+            Future<TileFitness> child = FitnessHelper.submitIncrementalFitnessTask(source, childXs, childYs, VERTICES, childArgb, renderer,
+                            samples, FitnessMetric.EUCLIDEAN, parent, dirty, FitnessHelper.NO_CUTOFF, null);
+            TileFitness actual = FitnessHelper.waitForFitness(child);
+            for (int tile = 0; tile < expected.getTileCount(); tile++) {
+                assertEquals(renderer + ", " + samples + " samples, mutation " + mutation + ", tile " + tile, expected.getError(tile),
+                                actual.getError(tile));
+            }
+            assertEquals(expected.getTotal(), actual.getTotal());
+
+            // Carry on from the child, so that errors taken from the parent
+            // are themselves incremental results.
+            xs = childXs;
+            ys = childYs;
+            argb = childArgb;
+            parent = child;
+        }
+        assertTrue("Only " + incremental + " mutations left clean tiles.", incremental > MUTATIONS / 2);
+    }
+
+    private static Future<TileFitness> evaluate(SourceBuffer source, int[] xs, int[] ys, int[] argb, Renderer renderer, int samples) {
+        return FitnessHelper.submitEvaluationTask(source, xs, ys, VERTICES, argb, renderer, samples, TILE_SIZE, FitnessMetric.EUCLIDEAN,
+                        FitnessHelper.NO_CUTOFF, null);
+    }
+
+    /**
+     * A coordinate, often on a tile or image edge and sometimes beyond the
+     * image.
+     */
+    private static int coordinate(Random random, int size) {
+        switch (random.nextInt(4)) {
+        case 0:
+            return random.nextInt(size / TILE_SIZE + 1) * TILE_SIZE + random.nextInt(3) - 1;
+        case 1:
+            return random.nextBoolean() ? random.nextInt(3) - 1 : size + random.nextInt(3) - 1;
+        case 2:
+            return random.nextInt(size + 20) - 10;
+        default:
+            return random.nextInt(size + 1);
+        }
+    }
+
+    private static void randomPolygon(Random random, int[] xs, int[] ys, int[] argb, int i) {
+        // Mostly small polygons, so that a mutation leaves most tiles clean.
+        int cx = coordinate(random, WIDTH);
+        int cy = coordinate(random, HEIGHT);
+        for (int j = i * VERTICES; j < (i + 1) * VERTICES; j++) {
+            xs[j] = random.nextInt(4) == 0 ? coordinate(random, WIDTH) : cx + random.nextInt(21) - 10;
+            ys[j] = random.nextInt(4) == 0 ? coordinate(random, HEIGHT) : cy + random.nextInt(21) - 10;
+        }
+        argb[i] = random.nextInt();
+    }
+
+    private static void mutate(Random random, int[] xs, int[] ys, int[] argb, int i) {
+        switch (random.nextInt(4)) {
+        case 0:
+            argb[i] = random.nextInt();
+            break;
+        case 1:
+            // Dormant, or woken up.
+            argb[i] = argb[i] >>> 24 == 0 ? argb[i] | 0x80000000 : argb[i] & 0xffffff;
+            break;
+        case 2:
+            int j = i * VERTICES + random.nextInt(VERTICES);
+            xs[j] = coordinate(random, WIDTH);
+            ys[j] = coordinate(random, HEIGHT);
+            break;
+        default:
+            randomPolygon(random, xs, ys, argb, i);
+        }
+    }
+
+    private static boolean sameGene(int[] xs, int[] ys, int[] argb, int[] otherXs, int[] otherYs, int[] otherArgb, int i) {
+        if (argb[i] != otherArgb[i]) {
+            return false;
+        }
+        for (int j = i * VERTICES; j < (i + 1) * VERTICES; j++) {
+            if (xs[j] != otherXs[j] || ys[j] != otherYs[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int columns() {
+        return (WIDTH + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    private static int rows() {
+        return (HEIGHT + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    /**
+     * As GASolution.markTiles(): marks the tiles overlapping the bounding box
+     * {minX, minY, maxX, maxY} and returns the number newly marked.
+     */
+    private static int markTiles(int[] box, boolean[] dirty) {
+        int fromColumn = Math.max(0, box[0]) / TILE_SIZE;
+        int toColumn = (Math.min(WIDTH, box[2]) - 1) / TILE_SIZE;
+        int fromRow = Math.max(0, box[1]) / TILE_SIZE;
+        int toRow = (Math.min(HEIGHT, box[3]) - 1) / TILE_SIZE;
+        int count = 0;
+        for (int row = fromRow; row <= toRow; row++) {
+            for (int column = fromColumn; column <= toColumn; column++) {
+                if (!dirty[row * columns() + column]) {
+                    dirty[row * columns() + column] = true;
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+}
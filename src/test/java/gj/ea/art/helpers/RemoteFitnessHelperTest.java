@@ -0,0 +1,405 @@
+package gj.ea.art.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import gj.ea.art.helpers.RenderImageHelper.Renderer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Evaluates genomes on workers listening on localhost and checks every
+ * result against a local evaluation: on several real workers, on a scripted
+ * worker that records how the genomes are batched and pipelined, and with a
+ * worker that dies halfway through answering a batch.
+ *
+ * @author jaco
+ *
+ */
+public class RemoteFitnessHelperTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int VERTICES = 3;
+    private static final int POLYGONS = 20;
+    private static final int TILE_SIZE = 16;
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private final List<ServerSocket> servers = Collections.synchronizedList(new ArrayList<ServerSocket>());
+    private final List<Socket> connections = Collections.synchronizedList(new ArrayList<Socket>());
+    private SourceBuffer source;
+    private SplittableRandom random;
+
+    /**
+     * Accepts a single connection from the coordinator and hands it over.
+     */
+    private interface Connection {
+        void run(Socket socket) throws Exception;
+    }
+
+    @Before
+    public void setUp() {
+        random = new SplittableRandom(42);
+        int[] rgb = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < rgb.length; i++) {
+            rgb[i] = 0xff000000 | random.nextInt(0x1000000);
+        }
+        source = new SourceBuffer(WIDTH, HEIGHT, rgb);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        synchronized (connections) {
+            for (Socket socket : connections) {
+                socket.close();
+            }
+        }
+        synchronized (servers) {
+            for (ServerSocket server : servers) {
+                server.close();
+            }
+        }
+        // The coordinator drops the workers once their connections are gone.
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while (RemoteFitnessHelper.isEnabled() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue("The workers were not dropped.", !RemoteFitnessHelper.isEnabled());
+    }
+
+    /**
+     * Listens on a free port and runs the connection (on its own thread) once
+     * the coordinator connects.
+     */
+    private String listen(final Connection connection) throws IOException {
+        final ServerSocket server = new ServerSocket(0);
+        servers.add(server);
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Socket socket = server.accept();
+                    connections.add(socket);
+                    connection.run(socket);
+                } catch (Exception e) {
+                    // The coordinator or the test closed the connection.
+                }
+            }
+        }, "test worker " + server.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return "localhost:" + server.getLocalPort();
+    }
+
+    /**
+     * A real worker, as run by WorkerMain.
+     */
+    private String realWorker(final CountDownLatch start) throws IOException {
+        return listen(new Connection() {
+            @Override
+            public void run(Socket socket) throws Exception {
+                start.await();
+                RemoteFitnessHelper.serve(socket);
+            }
+        });
+    }
+
+    private void connect(int batchSize, int pipelineDepth, String... addresses) {
+        StringBuilder workers = new StringBuilder();
+        for (String address : addresses) {
+            workers.append(workers.length() == 0 ? "" : ",").append(address);
+        }
+        Properties properties = new Properties();
+        properties.setProperty("workers", workers.toString());
+        properties.setProperty("remoteBatchSize", Integer.toString(batchSize));
+        properties.setProperty("remotePipelineDepth", Integer.toString(pipelineDepth));
+        RemoteFitnessHelper.setParameters(properties);
+        assertTrue(RemoteFitnessHelper.isEnabled());
+    }
+
+    private int[][] randomGenome() {
+        int[] xs = new int[POLYGONS * VERTICES];
+        int[] ys = new int[POLYGONS * VERTICES];
+        int[] argb = new int[POLYGONS];
+        for (int j = 0; j < xs.length; j++) {
+            xs[j] = random.nextInt(WIDTH + 1);
+            ys[j] = random.nextInt(HEIGHT + 1);
+        }
+        for (int i = 0; i < POLYGONS; i++) {
+            argb[i] = random.nextInt();
+        }
+        return new int[][] { xs, ys, argb };
+    }
+
+    /**
+     * Submits the genomes to the workers and checks each result against the
+     * same genome evaluated in this process.
+     */
+    private void evaluateAndCheck(int count) throws Exception {
+        List<int[][]> genomes = new ArrayList<int[][]>();
+        List<Future<TileFitness>> remote = new ArrayList<Future<TileFitness>>();
+        for (int i = 0; i < count; i++) {
+            int[][] genome = randomGenome();
+            genomes.add(genome);
+            remote.add(RemoteFitnessHelper.submitEvaluationTask(source, genome[0], genome[1], VERTICES, genome[2], Renderer.SCANLINE, 1,
+                            TILE_SIZE, FitnessMetric.EUCLIDEAN, null));
+        }
+        for (int i = 0; i < count; i++) {
+            int[][] genome = genomes.get(i);
+            TileFitness expected = evaluateLocally(source, genome[0], genome[1], genome[2], Renderer.SCANLINE, 1, TILE_SIZE,
+                            FitnessMetric.EUCLIDEAN);
+            TileFitness actual = remote.get(i).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertEquals("Genome " + i, expected.getTotal(), actual.getTotal());
+            for (int tile = 0; tile < expected.getTileCount(); tile++) {
+                assertEquals("Genome " + i + ", tile " + tile, expected.getError(tile), actual.getError(tile));
+            }
+        }
+    }
+
+    private static TileFitness evaluateLocally(SourceBuffer source, int[] xs, int[] ys, int[] argb, Renderer renderer, int samples,
+                    int tileSize, FitnessMetric metric) {
+        return FitnessHelper.waitForFitness(FitnessHelper.submitEvaluationTask(source, xs, ys, VERTICES, argb, renderer, samples,
+                        tileSize, metric, FitnessHelper.NO_CUTOFF, null));
+    }
+
+    @Test
+    public void evaluatesOnSeveralWorkers() throws Exception {
+        CountDownLatch start = new CountDownLatch(0);
+        connect(3, 2, realWorker(start), realWorker(start), realWorker(start));
+        evaluateAndCheck(60);
+    }
+
+    /**
+     * The scripted worker holds back its answers until as many batches as
+     * the pipeline allows (or the last genome) have arrived, so the test
+     * fails (by timing out) if the coordinator does not pipeline, and records
+     * the batch sizes.
+     */
+    @Test
+    public void batchesAndPipelines() throws Exception {
+        final int batchSize = 4;
+        final int pipelineDepth = 3;
+        final int genomes = batchSize * pipelineDepth * 4;
+        final List<Integer> batches = Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicInteger mostInFlight = new AtomicInteger();
+        String address = listen(new Connection() {
+            @Override
+            public void run(Socket socket) throws Exception {
+                ScriptedWorker worker = new ScriptedWorker(socket);
+                List<List<Job>> held = new ArrayList<List<Job>>();
+                int received = 0;
+                while (true) {
+                    List<Job> batch = worker.readBatch();
+                    batches.add(batch.size());
+                    held.add(batch);
+                    if (held.size() > mostInFlight.get()) {
+                        mostInFlight.set(held.size());
+                    }
+                    received += batch.size();
+                    if (held.size() == pipelineDepth || received == genomes) {
+                        for (List<Job> answer : held) {
+                            worker.answer(answer, answer.size());
+                        }
+                        held.clear();
+                    }
+                }
+            }
+        });
+        connect(batchSize, pipelineDepth, address);
+        evaluateAndCheck(genomes);
+        assertEquals(pipelineDepth, mostInFlight.get());
+        for (int size : batches) {
+            assertTrue("A batch of " + size, size >= 1 && size <= batchSize);
+        }
+        assertTrue("No batch held more than one genome: " + batches, batches.size() < genomes);
+    }
+
+    /**
+     * A worker that answers all but the last genome of its first batch, sends
+     * part of the last answer and then dies. Until then the real worker is
+     * kept from answering, so the failing one is sure to get work.
+     */
+    @Test
+    public void resubmitsWhenAWorkerFails() throws Exception {
+        final CountDownLatch failed = new CountDownLatch(1);
+        String failing = listen(new Connection() {
+            @Override
+            public void run(Socket socket) throws Exception {
+                try {
+                    ScriptedWorker worker = new ScriptedWorker(socket);
+                    List<Job> batch = worker.readBatch();
+                    worker.answer(batch, batch.size() - 1);
+                    worker.out.writeInt(4);
+                    worker.out.writeLong(1);
+                    worker.out.flush();
+                    socket.close();
+                } finally {
+                    failed.countDown();
+                }
+            }
+        });
+        connect(2, 1, failing, realWorker(failed));
+        evaluateAndCheck(20);
+    }
+
+    /**
+     * Plays the coordinator against a real worker and sends it a context it
+     * cannot evaluate with (a negative sample count), so that waiting for
+     * the results fails. The worker has to close the connection, or a
+     * coordinator would wait for the answer forever.
+     */
+    @Test
+    public void closesTheConnectionWhenAnEvaluationFails() throws Exception {
+        String address = realWorker(new CountDownLatch(0));
+        String[] hostAndPort = address.split(":");
+        Socket socket = new Socket(hostAndPort[0], Integer.parseInt(hostAndPort[1]));
+        connections.add(socket);
+        socket.setSoTimeout((int) TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.writeByte(RemoteFitnessHelper.CONTEXT);
+        out.writeInt(0);
+        out.writeInt(WIDTH);
+        out.writeInt(HEIGHT);
+        for (int rgb : source.getRGB()) {
+            out.writeInt(rgb);
+        }
+        out.writeByte(Renderer.SCANLINE.ordinal());
+        out.writeInt(-1);
+        out.writeInt(TILE_SIZE);
+        out.writeByte(FitnessMetric.EUCLIDEAN.ordinal());
+        int[][] genome = randomGenome();
+        out.writeByte(RemoteFitnessHelper.BATCH);
+        out.writeInt(1);
+        out.writeInt(0);
+        out.writeInt(VERTICES);
+        out.writeInt(POLYGONS);
+        for (int[] values : genome) {
+            for (int value : values) {
+                out.writeInt(value);
+            }
+        }
+        out.flush();
+
+        // At most the header of the result, then the end of the stream.
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        int read = 0;
+        while (in.read() != -1) {
+            read++;
+        }
+        assertTrue("Read " + read + " bytes.", read <= 5);
+    }
+
+    /**
+     * A genome received by the scripted worker.
+     */
+    private static final class Job {
+        final Map<String, Object> context;
+        final int[] xs;
+        final int[] ys;
+        final int[] argb;
+
+        Job(Map<String, Object> context, int[] xs, int[] ys, int[] argb) {
+            this.context = context;
+            this.xs = xs;
+            this.ys = ys;
+            this.argb = argb;
+        }
+    }
+
+    /**
+     * The worker side of the protocol, spelled out so that the test decides
+     * when (and whether) batches are answered.
+     */
+    private static final class ScriptedWorker {
+
+        final DataInputStream in;
+        final DataOutputStream out;
+        final Map<Integer, Map<String, Object>> contexts = new HashMap<Integer, Map<String, Object>>();
+
+        ScriptedWorker(Socket socket) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        /**
+         * Reads up to and including the next batch.
+         */
+        List<Job> readBatch() throws IOException {
+            while (true) {
+                int message = in.readByte();
+                if (message == RemoteFitnessHelper.CONTEXT) {
+                    Map<String, Object> context = new HashMap<String, Object>();
+                    int id = in.readInt();
+                    int width = in.readInt();
+                    int height = in.readInt();
+                    context.put("source", new SourceBuffer(width, height, readInts(width * height)));
+                    context.put("renderer", Renderer.values()[in.readByte()]);
+                    context.put("samples", in.readInt());
+                    context.put("tileSize", in.readInt());
+                    context.put("metric", FitnessMetric.values()[in.readByte()]);
+                    contexts.put(id, context);
+                } else if (message == RemoteFitnessHelper.BATCH) {
+                    int count = in.readInt();
+                    List<Job> batch = new ArrayList<Job>();
+                    for (int i = 0; i < count; i++) {
+                        Map<String, Object> context = contexts.get(in.readInt());
+                        assertEquals(VERTICES, in.readInt());
+                        int polygons = in.readInt();
+                        batch.add(new Job(context, readInts(polygons * VERTICES), readInts(polygons * VERTICES), readInts(polygons)));
+                    }
+                    return batch;
+                } else {
+                    throw new IOException("Unexpected message " + message + ".");
+                }
+            }
+        }
+
+        /**
+         * Sends the header of the batch's results and the results of the
+         * first 'count' genomes.
+         */
+        void answer(List<Job> batch, int count) throws IOException {
+            out.writeByte(RemoteFitnessHelper.RESULT);
+            out.writeInt(batch.size());
+            for (Job job : batch.subList(0, count)) {
+                TileFitness tiles = evaluateLocally((SourceBuffer) job.context.get("source"), job.xs, job.ys, job.argb,
+                                (Renderer) job.context.get("renderer"), (Integer) job.context.get("samples"),
+                                (Integer) job.context.get("tileSize"), (FitnessMetric) job.context.get("metric"));
+                out.writeInt(tiles.getTileCount());
+                for (int tile = 0; tile < tiles.getTileCount(); tile++) {
+                    out.writeLong(tiles.getError(tile));
+                }
+            }
+            out.flush();
+        }
+
+        private int[] readInts(int count) throws IOException {
+            int[] values = new int[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = in.readInt();
+            }
+            return values;
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+package gj.ea.art.helpers;
+
+import static org.junit.Assert.assertTrue;
+import gj.ea.art.helpers.RenderImageHelper.Renderer;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Renders random genomes with both Java2D and the scanline rasteriser and
+ * fails if the results are further apart, pixel by pixel, than the
+ * tolerance: a check to run after changing the rasteriser.
+ *
+ * @author jaco
+ *
+ */
+public class RenderImageHelperTest {
+
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 300;
+    private static final double TOLERANCE = 1.0; // mean difference per channel
+
+    @Test
+    public void scanlineMatchesJava2DForTriangles() {
+        assertMatches(200, 3, 4);
+    }
+
+    @Test
+    public void scanlineMatchesJava2DForPolygons() {
+        assertMatches(100, 6, 4);
+    }
+
+    @Test
+    public void scanlineMatchesJava2DWithoutAntialiasing() {
+        assertMatches(200, 3, 1);
+    }
+
+    private static void assertMatches(int polygonCount, int vertices, int samples) {
+        Random random = new Random(42);
+        int[] xs = new int[polygonCount * vertices];
+        int[] ys = new int[polygonCount * vertices];
+        int[] argb = new int[polygonCount];
+        for (int i = 0; i < polygonCount; i++) {
+            for (int j = i * vertices; j < (i + 1) * vertices; j++) {
+                xs[j] = random.nextInt(WIDTH + 1);
+                ys[j] = random.nextInt(HEIGHT + 1);
+            }
+            argb[i] = random.nextInt();
+        }
+
+        BufferedImage java2d = RenderImageHelper.render(xs, ys, vertices, argb, polygonCount, 0, 0, WIDTH, HEIGHT, Renderer.JAVA2D, samples);
+        BufferedImage scanline = RenderImageHelper.render(xs, ys, vertices, argb, polygonCount, 0, 0, WIDTH, HEIGHT, Renderer.SCANLINE,
+                        samples);
+
+        long sum = 0;
+        int max = 0, differing = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int p1 = java2d.getRGB(x, y), p2 = scanline.getRGB(x, y);
+                int diff = 0;
+                for (int shift = 0; shift < 24; shift += 8) {
+                    int d = Math.abs(((p1 >> shift) & 0xff) - ((p2 >> shift) & 0xff));
+                    sum += d;
+                    diff = Math.max(diff, d);
+                }
+                max = Math.max(max, diff);
+                if (diff > 0) {
+                    differing++;
+                }
+            }
+        }
+        double mean = sum / (3.0 * WIDTH * HEIGHT);
+        assertTrue(polygonCount + " polygons with " + vertices + " vertices, " + samples + "x" + samples + " samples: mean channel difference "
+                        + mean + " (max " + max + ", " + differing + " of " + WIDTH * HEIGHT + " pixels differing)", mean <= TOLERANCE);
+    }
+
+}
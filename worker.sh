@@ -0,0 +1,2 @@
+#!/bin/bash
+java -Djava.awt.headless=true -classpath target/gapaint-1.0-SNAPSHOT.jar gj.ea.art.WorkerMain "$@"